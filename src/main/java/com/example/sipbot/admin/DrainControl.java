@@ -0,0 +1,63 @@
+package com.example.sipbot.admin;
+
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.sip.SipAgent;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排空模式的管理入口，以 JMX MBean 发布（sipbot:type=Drain，需 spring.jmx.enabled=true），供滚动重启前调用：
+ * 先 drain，待 ActiveCalls 归零（或超时）后再停止进程；停止时的排空会立即完成。
+ * Admin hook for drain mode, published as a JMX MBean (sipbot:type=Drain, needs spring.jmx.enabled=true) for use
+ * ahead of a rolling restart: call drain, wait for ActiveCalls to reach zero or the deadline to pass, then stop the
+ * process, whose own drain then finishes at once.
+ */
+@Component
+@ManagedResource(objectName = "sipbot:type=Drain", description = "Graceful drain for rolling restarts")
+public class DrainControl {
+
+    private final SipAgent sipAgent;
+    private final SipProperties properties;
+
+    public DrainControl(SipAgent sipAgent, SipProperties properties) {
+        this.sipAgent = sipAgent;
+        this.properties = properties;
+    }
+
+    /**
+     * 开始排空并立即返回；进度由后台线程写入日志，也可通过属性查询。
+     * Starts draining and returns at once; a background thread logs progress, which the attributes also expose.
+     */
+    @ManagedOperation(description = "Refuse new calls, deregister, and let calls in progress finish")
+    public String drain() {
+        boolean alreadyDraining = sipAgent.isDraining();
+        sipAgent.startDrain();
+        if (!alreadyDraining) {
+            Thread reporter = new Thread(() -> sipAgent.awaitDrained(
+                    TimeUnit.SECONDS.toMillis(properties.getDrainTimeoutSeconds())), "sip-drain");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+        return "Draining, " + sipAgent.getActiveCallCount() + " call(s) in progress";
+    }
+
+    @ManagedOperation(description = "Cancel the drain: register again and accept new calls")
+    public String resume() {
+        sipAgent.resume();
+        return "Accepting calls";
+    }
+
+    @ManagedAttribute(description = "Whether the node is draining")
+    public boolean isDraining() {
+        return sipAgent.isDraining();
+    }
+
+    @ManagedAttribute(description = "Calls in progress, answered or still ringing")
+    public int getActiveCalls() {
+        return sipAgent.getActiveCallCount();
+    }
+}
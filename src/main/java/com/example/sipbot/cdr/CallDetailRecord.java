@@ -0,0 +1,210 @@
+package com.example.sipbot.cdr;
+
+import com.example.sipbot.media.RtpStreamStats;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单通呼叫的话单，在呼叫过程中逐步填充，结束时交给 {@link CdrJournal}。
+ * Call detail record filled in over the life of a call and handed to {@link CdrJournal} once it ends.
+ */
+public class CallDetailRecord {
+
+    private final String callId;
+    private final String direction;
+    private final long setupTimeMillis;
+    private final long setupNanos = System.nanoTime();
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    private volatile String remoteHost;
+    private volatile int remoteRtpPort;
+    private volatile int sipStatus;
+    private volatile long answerTimeMillis;
+    private volatile long mediaRequestedNanos;
+    private volatile boolean earlyMedia;
+    private volatile boolean srtp;
+    private volatile long endTimeMillis;
+    private volatile HangupCause hangupCause;
+    private volatile HangupParty hangupParty;
+    private volatile RtpStreamStats mediaStats;
+
+    public CallDetailRecord(String callId, String direction, long setupTimeMillis) {
+        this.callId = callId;
+        this.direction = direction;
+        this.setupTimeMillis = setupTimeMillis;
+    }
+
+    public void setRemoteMedia(String remoteHost, int remoteRtpPort) {
+        this.remoteHost = remoteHost;
+        this.remoteRtpPort = remoteRtpPort;
+    }
+
+    /**
+     * 记录呼叫的最终 SIP 响应码（本方发出或对端返回）。
+     * Records the call's final SIP status, whether sent by us or returned by the peer.
+     */
+    public void setSipStatus(int sipStatus) {
+        this.sipStatus = sipStatus;
+    }
+
+    /**
+     * 记录媒体是否经 SRTP 加密。
+     * Records whether media was protected with SRTP.
+     */
+    public void setSrtp(boolean srtp) {
+        this.srtp = srtp;
+    }
+
+    public void markAnswered() {
+        answerTimeMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 记录媒体启动时刻（收到 ACK 或早期媒体发出 183 时）。
+     * Records when media was started: on ACK, or when 183 went out in early-media mode.
+     */
+    public void markMediaRequested() {
+        mediaRequestedNanos = System.nanoTime();
+    }
+
+    public void setEarlyMedia(boolean earlyMedia) {
+        this.earlyMedia = earlyMedia;
+    }
+
+    public void setMediaStats(RtpStreamStats mediaStats) {
+        this.mediaStats = mediaStats;
+    }
+
+    /**
+     * 记录挂机信息；只有第一次调用生效，返回 false 表示话单已结束。
+     * Records the hangup; only the first call wins, false means the record was already closed.
+     */
+    public boolean complete(HangupCause cause, HangupParty party) {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+        endTimeMillis = System.currentTimeMillis();
+        hangupCause = cause;
+        hangupParty = party;
+        return true;
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public long getSetupTimeMillis() {
+        return setupTimeMillis;
+    }
+
+    public int getSipStatus() {
+        return sipStatus;
+    }
+
+    public long getAnswerTimeMillis() {
+        return answerTimeMillis;
+    }
+
+    public long getEndTimeMillis() {
+        return endTimeMillis;
+    }
+
+    public HangupCause getHangupCause() {
+        return hangupCause;
+    }
+
+    public HangupParty getHangupParty() {
+        return hangupParty;
+    }
+
+    public RtpStreamStats getMediaStats() {
+        return mediaStats;
+    }
+
+    /**
+     * 从收到 INVITE 到首个 RTP 包的时间（微秒），尚无媒体时为 -1。
+     * Microseconds from receiving the INVITE to the first RTP packet, or -1 without media.
+     */
+    public long getTimeToFirstAudioMicros() {
+        RtpStreamStats stats = mediaStats;
+        if (stats == null || stats.getFirstPacketNanos() == 0) {
+            return -1;
+        }
+        return (stats.getFirstPacketNanos() - setupNanos) / 1000;
+    }
+
+    /**
+     * 从启动媒体（ACK 或 183）到首个 RTP 包的时间（微秒），尚无媒体时为 -1。
+     * Microseconds from starting media (ACK or 183) to the first RTP packet, or -1 without media.
+     */
+    public long getStartToFirstPacketMicros() {
+        RtpStreamStats stats = mediaStats;
+        if (stats == null || stats.getFirstPacketNanos() == 0 || mediaRequestedNanos == 0) {
+            return -1;
+        }
+        return (stats.getFirstPacketNanos() - mediaRequestedNanos) / 1000;
+    }
+
+    /**
+     * 以单行 JSON 追加到缓冲区，仅由写盘线程调用。
+     * Appends the record as one JSON line; only called from the journal writer thread.
+     */
+    void appendJson(StringBuilder out) {
+        RtpStreamStats stats = mediaStats;
+        out.append("{\"callId\":");
+        appendString(out, callId);
+        out.append(",\"direction\":");
+        appendString(out, direction);
+        out.append(",\"remoteHost\":");
+        appendString(out, remoteHost);
+        out.append(",\"remoteRtpPort\":").append(remoteRtpPort);
+        out.append(",\"sipStatus\":").append(sipStatus);
+        out.append(",\"setupTime\":").append(setupTimeMillis);
+        out.append(",\"answerTime\":").append(answerTimeMillis);
+        out.append(",\"mediaStartTime\":").append(stats != null ? stats.getFirstPacketMillis() : 0);
+        out.append(",\"endTime\":").append(endTimeMillis);
+        out.append(",\"earlyMedia\":").append(earlyMedia);
+        out.append(",\"srtp\":").append(srtp);
+        out.append(",\"timeToFirstAudioUs\":").append(getTimeToFirstAudioMicros());
+        out.append(",\"startToFirstPacketUs\":").append(getStartToFirstPacketMicros());
+        out.append(",\"packetsSent\":").append(stats != null ? stats.getPacketsSent() : 0);
+        out.append(",\"bytesSent\":").append(stats != null ? stats.getOctetsSent() : 0);
+        if (stats != null) {
+            out.append(",\"packetsReceived\":").append(stats.getPacketsReceived());
+            out.append(",\"packetsLost\":").append(stats.getPacketsLost());
+            out.append(",\"jitterMs\":").append(stats.getJitterMillis());
+            out.append(",\"remoteFractionLost\":").append(stats.getRemoteFractionLost());
+            out.append(",\"remoteCumulativeLost\":").append(stats.getRemoteCumulativeLost());
+            out.append(",\"remoteJitterMs\":").append(stats.getRemoteJitterMillis());
+            out.append(",\"rttMs\":").append(stats.getRoundTripMicros() < 0 ? -1 : stats.getRoundTripMicros() / 1000.0);
+        }
+        out.append(",\"hangupCause\":");
+        appendString(out, hangupCause != null ? hangupCause.name() : null);
+        out.append(",\"hangupBy\":");
+        appendString(out, hangupParty != null ? hangupParty.name() : null);
+        out.append("}\n");
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
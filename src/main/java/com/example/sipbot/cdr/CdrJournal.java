@@ -0,0 +1,203 @@
+package com.example.sipbot.cdr;
+
+import com.example.sipbot.config.SipProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步话单日志：信令线程只做一次无锁入队，由单独的写盘线程批量写成 JSON Lines 文件并按大小/时间滚动。
+ * Asynchronous CDR journal. Signaling threads only do a lock-free enqueue; a dedicated writer thread
+ * drains the queue in batches into a JSON Lines file that rotates by size and age.
+ */
+@Component
+public class CdrJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(CdrJournal.class);
+    private static final DateTimeFormatter ROTATE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final int MAX_ROTATE_ATTEMPTS = 100;
+
+    private final SipProperties properties;
+    private final ConcurrentLinkedQueue<CallDetailRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final StringBuilder batch = new StringBuilder(4096);
+
+    private ScheduledExecutorService writer;
+    private Path file;
+    private FileChannel channel;
+    private long fileBytes;
+    private long fileOpenedMillis;
+
+    public CdrJournal(SipProperties properties) {
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isCdrEnabled()) {
+            log.info("CDR journal disabled");
+            return;
+        }
+        file = Paths.get(properties.getCdrFile());
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cdr-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(10, properties.getCdrFlushIntervalMillis());
+        writer.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("CDR journal writing to {}", file.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        closeFile();
+    }
+
+    /**
+     * 提交一条已结束的话单。队列已满时丢弃并计数，绝不阻塞调用线程。
+     * Queues a completed record. When the queue is full the record is dropped and counted; the caller never blocks.
+     */
+    public boolean append(CallDetailRecord record) {
+        if (writer == null) {
+            return false;
+        }
+        if (pending.incrementAndGet() > properties.getCdrQueueCapacity()) {
+            pending.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(record);
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private synchronized void flush() {
+        try {
+            CallDetailRecord record;
+            while ((record = queue.poll()) != null) {
+                pending.decrementAndGet();
+                record.appendJson(batch);
+            }
+            if (batch.length() == 0) {
+                rotateIfNeeded();
+                return;
+            }
+            openIfNeeded();
+            byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+            batch.setLength(0);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            fileBytes += bytes.length;
+            rotateIfNeeded();
+        } catch (IOException e) {
+            batch.setLength(0);
+            log.error("Failed to write CDR batch to {}", file, e);
+            closeFile();
+        } catch (RuntimeException e) {
+            batch.setLength(0);
+            log.error("Unexpected error writing CDR batch", e);
+        }
+    }
+
+    private void openIfNeeded() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        fileOpenedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 达到大小或时间上限时把当前文件改名归档。改名失败只记日志并继续写当前文件，下次刷盘再试，已写入的批次不受影响。
+     * Archives the current file under a new name once it hits the size or age limit. A failed rename is only
+     * logged: writing carries on into the current file and the next flush retries, so no batch is lost.
+     */
+    private void rotateIfNeeded() {
+        if (channel == null) {
+            return;
+        }
+        long ageMillis = System.currentTimeMillis() - fileOpenedMillis;
+        boolean tooBig = fileBytes >= properties.getCdrMaxFileBytes();
+        boolean tooOld = ageMillis >= TimeUnit.MINUTES.toMillis(properties.getCdrRotateIntervalMinutes());
+        if (!tooBig && !(tooOld && fileBytes > 0)) {
+            return;
+        }
+        closeFile();
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stamp = "-" + LocalDateTime.now().format(ROTATE_SUFFIX);
+        // 同一毫秒内多次滚动时追加序号，保证归档名唯一。
+        // Several rotations within one millisecond get a counter appended so archive names stay unique.
+        for (int attempt = 0; attempt < MAX_ROTATE_ATTEMPTS; attempt++) {
+            String suffix = attempt == 0 ? stamp : stamp + "-" + attempt;
+            String rotatedName = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+            Path rotated = file.resolveSibling(rotatedName);
+            try {
+                Files.move(file, rotated);
+                log.info("Rotated CDR journal to {}", rotated);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                // 换下一个名字重试。 Try the next name.
+            } catch (IOException e) {
+                log.warn("Failed to rotate CDR journal {}; continuing in the current file", file, e);
+                return;
+            }
+        }
+        log.warn("Failed to rotate CDR journal {}: no free archive name; continuing in the current file", file);
+    }
+
+    private void closeFile() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close CDR journal {}", file, e);
+        } finally {
+            channel = null;
+        }
+    }
+}
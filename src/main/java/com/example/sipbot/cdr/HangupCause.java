@@ -0,0 +1,18 @@
+package com.example.sipbot.cdr;
+
+/**
+ * 挂机原因，命名沿用 FreeSWITCH/Q.850 习惯以便与对端 CDR 对照。
+ * Hangup causes, named after the FreeSWITCH/Q.850 values so records line up with the switch's own CDRs.
+ */
+public enum HangupCause {
+    NORMAL_CLEARING,
+    USER_BUSY,
+    NO_ANSWER,
+    CALL_REJECTED,
+    UNALLOCATED_NUMBER,
+    NORMAL_TEMPORARY_FAILURE,
+    ORIGINATOR_CANCEL,
+    INCOMPATIBLE_DESTINATION,
+    RECOVERY_ON_TIMER_EXPIRE,
+    SYSTEM_SHUTDOWN
+}
@@ -0,0 +1,11 @@
+package com.example.sipbot.cdr;
+
+/**
+ * 发起挂机的一方。
+ * Which side ended the call.
+ */
+public enum HangupParty {
+    LOCAL,
+    REMOTE,
+    SYSTEM
+}
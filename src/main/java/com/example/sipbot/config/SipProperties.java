@@ -3,6 +3,9 @@ package com.example.sipbot.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Component
 @ConfigurationProperties(prefix = "sip")
 public class SipProperties {
@@ -20,17 +23,54 @@ public class SipProperties {
     private int port = 5060;
 
     /**
-     * 传输协议（udp 或 tcp）。
-     * UDP or TCP.
+     * 发往注册服务器的传输协议（udp 或 tcp）。为 tcp 时所有请求经一条到注册服务器的持久连接发送。
+     * Transport towards the registrar, udp or tcp. With tcp every request goes over one persistent connection to
+     * the registrar.
      */
     private String transport = "udp";
 
     /**
-     * SDP 中声明的 RTP 端口，同时作为 Netty 绑定端口。
-     * RTP port used in the SDP answer and as the local bind for Netty.
+     * 在同一 SIP 栈、同一端口上额外监听的传输协议，例如 [tcp]；默认为空，只监听 transport。
+     * Extra transports listened on by the same SIP stack and port, e.g. [tcp]. Empty by default, so only transport
+     * is listened on.
+     */
+    private List<String> listenTransports = new ArrayList<>();
+
+    /**
+     * 持久 TCP 连接上 CRLF 保活的间隔（秒），RFC 5626 建议 95–120 秒。
+     * Seconds between CRLF keepalives on the persistent TCP connection; RFC 5626 suggests 95-120.
+     */
+    private int keepaliveIntervalSeconds = 95;
+
+    /**
+     * 每次 CRLF 保活后，经同一连接发送的 OPTIONS 等待响应的时间（秒），与 RFC 5626 的 pong 超时一样取 10 秒；
+     * 超时视为半开连接，关闭后重连并重新注册。0 表示不检查。
+     * Seconds the OPTIONS sent over the connection after each CRLF keepalive waits for an answer, 10 like the
+     * RFC 5626 pong timeout. A miss counts as a half-open flow, which is closed, reconnected and re-registered; 0
+     * disables the check.
+     */
+    private int keepalivePongTimeoutSeconds = 10;
+
+    /**
+     * 持久连接断开后重连退避的上限（秒）。
+     * Upper bound, in seconds, of the reconnect backoff after the persistent connection drops.
+     */
+    private int reconnectMaxBackoffSeconds = 60;
+
+    /**
+     * 本地 RTP 端口范围的起点，与 rtpPortMax 一起构成 RtpPortPool 的租借范围；每通呼叫在 SDP 中声明并绑定其租到的端口。
+     * First port of the local RTP range that, together with rtpPortMax, RtpPortPool leases from; each call
+     * advertises and binds the port it leased.
      */
     private int rtpPort = 4000;
 
+    /**
+     * 本地 RTP 端口范围上限；每通呼叫从 rtpPort 起占用一对端口（RTP 为偶数，RTCP 为其 +1），结束后归还。
+     * Upper bound of the local RTP port range. Each call leases a port pair starting at rtpPort (RTP on the even
+     * port, RTCP on the next one) and returns it when the call ends.
+     */
+    private int rtpPortMax = 4999;
+
     /**
      * 注册服务器或 FreeSWITCH 域。
      * Registrar or FreeSWITCH domain.
@@ -58,8 +98,110 @@ public class SipProperties {
      */
     private String ttsText = "Welcome to the Java SIP bot";
 
+    /**
+     * 依次播放的提示音列表，条目为 file:<路径> 或 tts:<文本>；为空时播放 audioFile（缺失则用 ttsText）。
+     * Prompts played back to back, each file:<path> or tts:<text>; when empty, audioFile is played (or ttsText if
+     * the file is missing).
+     */
+    private List<String> playlist = new ArrayList<>();
+
     private boolean hangupAfterPlayback = true;
 
+    /**
+     * 早期媒体：先回 183 Session Progress（带 SDP）并立即开始播放，经过 earlyMediaMillis 后再发送 200 OK。
+     * Early media: answer with 183 Session Progress plus SDP and start playback at once, then send 200 OK after
+     * earlyMediaMillis.
+     */
+    private boolean earlyMedia = false;
+
+    /**
+     * 早期媒体模式下应答前播放的时长（毫秒）；期间主叫可 CANCEL，提示音提前播完则立即应答。0 表示 183 之后立即应答。
+     * How long early media plays before the call is answered, in milliseconds. The caller may CANCEL meanwhile, and
+     * the call is answered at once if the prompts finish first. 0 answers straight after the 183.
+     */
+    private long earlyMediaMillis = 3000;
+
+    /**
+     * 对端支持 CN 时，提示音中的静音段改发舒适噪声包（RFC 3389）。
+     * Send comfort noise packets (RFC 3389) for silent prompt segments when the peer offers CN.
+     */
+    private boolean comfortNoise = true;
+
+    /**
+     * SRTP 策略（SDES，AES_CM_128_HMAC_SHA1_80）：disabled 拒绝 RTP/SAVP 提议；optional 按对端提议使用 SRTP 或明文
+     * RTP；required 拒绝明文提议，外呼也以 RTP/SAVP 提议。
+     * SRTP policy (SDES, AES_CM_128_HMAC_SHA1_80): disabled rejects RTP/SAVP offers; optional follows the peer's
+     * offer, SRTP or plain RTP; required rejects plain offers and makes outbound calls offer RTP/SAVP.
+     */
+    private String srtp = "optional";
+
+    /**
+     * 是否写入话单日志。
+     * Whether call detail records are journaled.
+     */
+    private boolean cdrEnabled = true;
+
+    /**
+     * 话单文件路径（JSON Lines），滚动后的文件以时间戳命名放在同一目录。
+     * CDR journal path (JSON Lines); rotated files get a timestamp suffix in the same directory.
+     */
+    private String cdrFile = "logs/cdr.jsonl";
+
+    /**
+     * 单个话单文件的最大字节数，超过后滚动。
+     * Rotate the CDR file once it grows past this many bytes.
+     */
+    private long cdrMaxFileBytes = 10 * 1024 * 1024;
+
+    /**
+     * 话单文件按时间滚动的间隔（分钟）。
+     * Rotate the CDR file after this many minutes.
+     */
+    private int cdrRotateIntervalMinutes = 60;
+
+    /**
+     * 批量写盘间隔（毫秒）。
+     * Interval between batched CDR flushes.
+     */
+    private long cdrFlushIntervalMillis = 1000;
+
+    /**
+     * 待写话单的最大排队数，超过后丢弃并计数。
+     * Maximum queued CDRs before new ones are dropped and counted.
+     */
+    private int cdrQueueCapacity = 65536;
+
+    /**
+     * 外呼任务在本节点每秒发起的最大呼叫数。
+     * Maximum outbound calls started per second by campaigns on this node.
+     */
+    private double dialerCallsPerSecond = 10;
+
+    /**
+     * 外呼任务同时进行的最大呼叫数（含振铃中与通话中）。
+     * Maximum concurrent outbound campaign calls, ringing or answered.
+     */
+    private int dialerMaxConcurrentCalls = 100;
+
+    /**
+     * 外呼振铃超时（秒），超时后发送 CANCEL。
+     * Seconds an outbound call may ring before it is cancelled.
+     */
+    private int dialerRingTimeoutSeconds = 30;
+
+    /**
+     * 排空（停机或管理端触发）时等待进行中呼叫结束的最长时间（秒），超时后挂断剩余呼叫。
+     * Longest time, in seconds, a drain (on shutdown or from the admin hook) waits for calls in progress to end
+     * before hanging up the rest.
+     */
+    private int drainTimeoutSeconds = 120;
+
+    /**
+     * 排空期间拒绝来电的 503 响应中 Retry-After 的秒数。
+     * Retry-After, in seconds, on the 503 that refuses calls while draining.
+     */
+    private int drainRetryAfterSeconds = 30;
+
     public String getLocalAddress() {
         return localAddress;
     }
@@ -84,6 +226,38 @@ public class SipProperties {
         this.transport = transport;
     }
 
+    public List<String> getListenTransports() {
+        return listenTransports;
+    }
+
+    public void setListenTransports(List<String> listenTransports) {
+        this.listenTransports = listenTransports;
+    }
+
+    public int getKeepaliveIntervalSeconds() {
+        return keepaliveIntervalSeconds;
+    }
+
+    public void setKeepaliveIntervalSeconds(int keepaliveIntervalSeconds) {
+        this.keepaliveIntervalSeconds = keepaliveIntervalSeconds;
+    }
+
+    public int getKeepalivePongTimeoutSeconds() {
+        return keepalivePongTimeoutSeconds;
+    }
+
+    public void setKeepalivePongTimeoutSeconds(int keepalivePongTimeoutSeconds) {
+        this.keepalivePongTimeoutSeconds = keepalivePongTimeoutSeconds;
+    }
+
+    public int getReconnectMaxBackoffSeconds() {
+        return reconnectMaxBackoffSeconds;
+    }
+
+    public void setReconnectMaxBackoffSeconds(int reconnectMaxBackoffSeconds) {
+        this.reconnectMaxBackoffSeconds = reconnectMaxBackoffSeconds;
+    }
+
     public int getRtpPort() {
         return rtpPort;
     }
@@ -92,6 +266,14 @@ public class SipProperties {
         this.rtpPort = rtpPort;
     }
 
+    public int getRtpPortMax() {
+        return rtpPortMax;
+    }
+
+    public void setRtpPortMax(int rtpPortMax) {
+        this.rtpPortMax = rtpPortMax;
+    }
+
     public String getDomain() {
         return domain;
     }
@@ -140,6 +322,14 @@ public class SipProperties {
         this.ttsText = ttsText;
     }
 
+    public List<String> getPlaylist() {
+        return playlist;
+    }
+
+    public void setPlaylist(List<String> playlist) {
+        this.playlist = playlist;
+    }
+
     public boolean isHangupAfterPlayback() {
         return hangupAfterPlayback;
     }
@@ -147,4 +337,124 @@ public class SipProperties {
     public void setHangupAfterPlayback(boolean hangupAfterPlayback) {
         this.hangupAfterPlayback = hangupAfterPlayback;
     }
+
+    public boolean isEarlyMedia() {
+        return earlyMedia;
+    }
+
+    public void setEarlyMedia(boolean earlyMedia) {
+        this.earlyMedia = earlyMedia;
+    }
+
+    public long getEarlyMediaMillis() {
+        return earlyMediaMillis;
+    }
+
+    public void setEarlyMediaMillis(long earlyMediaMillis) {
+        this.earlyMediaMillis = earlyMediaMillis;
+    }
+
+    public boolean isComfortNoise() {
+        return comfortNoise;
+    }
+
+    public void setComfortNoise(boolean comfortNoise) {
+        this.comfortNoise = comfortNoise;
+    }
+
+    public String getSrtp() {
+        return srtp;
+    }
+
+    public void setSrtp(String srtp) {
+        this.srtp = srtp;
+    }
+
+    public boolean isCdrEnabled() {
+        return cdrEnabled;
+    }
+
+    public void setCdrEnabled(boolean cdrEnabled) {
+        this.cdrEnabled = cdrEnabled;
+    }
+
+    public String getCdrFile() {
+        return cdrFile;
+    }
+
+    public void setCdrFile(String cdrFile) {
+        this.cdrFile = cdrFile;
+    }
+
+    public long getCdrMaxFileBytes() {
+        return cdrMaxFileBytes;
+    }
+
+    public void setCdrMaxFileBytes(long cdrMaxFileBytes) {
+        this.cdrMaxFileBytes = cdrMaxFileBytes;
+    }
+
+    public int getCdrRotateIntervalMinutes() {
+        return cdrRotateIntervalMinutes;
+    }
+
+    public void setCdrRotateIntervalMinutes(int cdrRotateIntervalMinutes) {
+        this.cdrRotateIntervalMinutes = cdrRotateIntervalMinutes;
+    }
+
+    public long getCdrFlushIntervalMillis() {
+        return cdrFlushIntervalMillis;
+    }
+
+    public void setCdrFlushIntervalMillis(long cdrFlushIntervalMillis) {
+        this.cdrFlushIntervalMillis = cdrFlushIntervalMillis;
+    }
+
+    public int getCdrQueueCapacity() {
+        return cdrQueueCapacity;
+    }
+
+    public void setCdrQueueCapacity(int cdrQueueCapacity) {
+        this.cdrQueueCapacity = cdrQueueCapacity;
+    }
+
+    public double getDialerCallsPerSecond() {
+        return dialerCallsPerSecond;
+    }
+
+    public void setDialerCallsPerSecond(double dialerCallsPerSecond) {
+        this.dialerCallsPerSecond = dialerCallsPerSecond;
+    }
+
+    public int getDialerMaxConcurrentCalls() {
+        return dialerMaxConcurrentCalls;
+    }
+
+    public void setDialerMaxConcurrentCalls(int dialerMaxConcurrentCalls) {
+        this.dialerMaxConcurrentCalls = dialerMaxConcurrentCalls;
+    }
+
+    public int getDialerRingTimeoutSeconds() {
+        return dialerRingTimeoutSeconds;
+    }
+
+    public void setDialerRingTimeoutSeconds(int dialerRingTimeoutSeconds) {
+        this.dialerRingTimeoutSeconds = dialerRingTimeoutSeconds;
+    }
+
+    public int getDrainTimeoutSeconds() {
+        return drainTimeoutSeconds;
+    }
+
+    public void setDrainTimeoutSeconds(int drainTimeoutSeconds) {
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+    }
+
+    public int getDrainRetryAfterSeconds() {
+        return drainRetryAfterSeconds;
+    }
+
+    public void setDrainRetryAfterSeconds(int drainRetryAfterSeconds) {
+        this.drainRetryAfterSeconds = drainRetryAfterSeconds;
+    }
 }
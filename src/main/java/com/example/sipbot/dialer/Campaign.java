@@ -0,0 +1,111 @@
+package com.example.sipbot.dialer;
+
+import com.example.sipbot.cdr.CallDetailRecord;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个外呼任务：待拨号码队列与进度计数。所有号码拨出且呼叫全部结束后，{@link #whenDone()} 完成。
+ * One outbound campaign: the queue of numbers still to dial plus progress counters. {@link #whenDone()} completes
+ * once every number has been dialed and all of its calls have ended.
+ */
+public class Campaign {
+
+    private final String name;
+    private final Queue<String> targets;
+    private final AtomicInteger dialed = new AtomicInteger();
+    private final AtomicInteger answered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final CompletableFuture<Campaign> done = new CompletableFuture<>();
+    private volatile boolean exhausted;
+
+    Campaign(String name, Collection<String> targets) {
+        this.name = name;
+        this.targets = new ConcurrentLinkedQueue<>(targets);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 停止拨出剩余号码；已发起的呼叫继续进行。
+     * Stops dialing the remaining numbers; calls already placed carry on.
+     */
+    public void cancel() {
+        targets.clear();
+    }
+
+    public int getRemaining() {
+        return targets.size();
+    }
+
+    public int getDialed() {
+        return dialed.get();
+    }
+
+    public int getAnswered() {
+        return answered.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getActive() {
+        return dialed.get() - completed.get();
+    }
+
+    public CompletableFuture<Campaign> whenDone() {
+        return done;
+    }
+
+    /**
+     * 取下一个待拨号码；队列耗尽时返回 null 并标记任务不再拨号。
+     * Takes the next number to dial; returns null and marks the campaign as fully dialed once the queue is empty.
+     */
+    String nextTarget() {
+        String target = targets.poll();
+        if (target == null) {
+            exhausted = true;
+            checkDone();
+        }
+        return target;
+    }
+
+    void onDialed() {
+        dialed.incrementAndGet();
+    }
+
+    /**
+     * 记录一通呼叫的结果：有应答时间记为接通，其余（含无法发出）记为失败。
+     * Records one call's outcome: answered when the CDR has an answer time, failed otherwise, including calls that
+     * could not be sent.
+     */
+    void onCompleted(CallDetailRecord cdr) {
+        if (cdr != null && cdr.getAnswerTimeMillis() > 0) {
+            answered.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        completed.incrementAndGet();
+        checkDone();
+    }
+
+    private void checkDone() {
+        if (exhausted && completed.get() == dialed.get()) {
+            done.complete(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[dialed=" + getDialed() + ", answered=" + getAnswered() + ", failed=" + getFailed()
+                + ", active=" + getActive() + ", remaining=" + getRemaining() + "]";
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.sipbot.dialer;
+
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.sip.SipAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 外呼任务调度器。单个节拍线程按令牌桶限速（dialer-calls-per-second），并受节点级并发上限
+ * （dialer-max-concurrent-calls）约束，在多个任务之间轮流拨号。发起呼叫只发送 INVITE，结果通过回调异步返回，
+ * 节拍线程从不等待网络。
+ * Outbound campaign scheduler. A single ticker thread paces dialing with a token bucket (dialer-calls-per-second),
+ * bounded by a node-wide concurrency limit (dialer-max-concurrent-calls), taking turns between campaigns. Placing a
+ * call only sends the INVITE and outcomes arrive through callbacks, so the ticker never waits on the network.
+ */
+@Component
+public class CampaignScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CampaignScheduler.class);
+    private static final long TICK_MILLIS = 10;
+
+    private final SipAgent sipAgent;
+    private final SipProperties properties;
+    private final Queue<Campaign> campaigns = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "campaign-ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 仅由节拍线程访问。
+    // Only touched by the ticker thread.
+    private double tokens;
+    private long lastTickNanos;
+
+    public CampaignScheduler(SipAgent sipAgent, SipProperties properties) {
+        this.sipAgent = sipAgent;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        lastTickNanos = System.nanoTime();
+        ticker.scheduleAtFixedRate(() -> tick(System.nanoTime()), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        campaigns.forEach(Campaign::cancel);
+    }
+
+    /**
+     * 提交一个外呼任务，号码为 sip: URI 或注册域内的用户名，按提交顺序拨出。
+     * Submits a campaign; targets are sip: URIs or users in the registrar's domain, dialed in the given order.
+     */
+    public Campaign submit(String name, Collection<String> targets) {
+        Campaign campaign = new Campaign(name, targets);
+        campaigns.add(campaign);
+        log.info("Campaign {} queued with {} targets", name, targets.size());
+        return campaign;
+    }
+
+    /**
+     * 当前由外呼任务发起、尚未结束的呼叫数。
+     * Campaign calls placed and not yet ended.
+     */
+    public int getActiveCalls() {
+        return activeCalls.get();
+    }
+
+    /**
+     * 一个节拍：按 now 补充令牌并尽量拨号；只由节拍线程调用（测试可直接传入时间）。
+     * One tick: refills tokens up to now and dials as far as they allow. Only called on the ticker thread, or by
+     * tests with a chosen time.
+     */
+    void tick(long now) {
+        try {
+            if (sipAgent.isDraining()) {
+                // 排空期间暂停拨号，任务保持排队，退出排空后继续。
+                // Dialing pauses while draining; campaigns stay queued and carry on if the drain is cancelled.
+                tokens = 0;
+                lastTickNanos = now;
+                return;
+            }
+            double rate = properties.getDialerCallsPerSecond();
+            // 桶容量为两个节拍的令牌（至少 1），节拍抖动不丢速率，空闲后也不会突发。
+            // The bucket holds two ticks' worth of tokens (at least one): tick jitter costs no rate, and an idle
+            // period does not turn into a burst.
+            double capacity = Math.max(1, rate * TICK_MILLIS * 2 / 1000.0);
+            tokens = Math.min(capacity, tokens + (now - lastTickNanos) * rate / 1_000_000_000.0);
+            lastTickNanos = now;
+
+            while (tokens >= 1 && activeCalls.get() < properties.getDialerMaxConcurrentCalls()) {
+                Campaign campaign = campaigns.poll();
+                if (campaign == null) {
+                    break;
+                }
+                String target = campaign.nextTarget();
+                if (target == null) {
+                    log.info("Campaign {} fully dialed: {}", campaign.getName(), campaign);
+                    continue;
+                }
+                // 拨出一个号码后排到队尾，多个任务轮流共享速率。
+                // After one number the campaign goes to the back of the queue, so campaigns share the rate in turn.
+                campaigns.add(campaign);
+                tokens -= 1;
+                dial(campaign, target);
+            }
+        } catch (RuntimeException e) {
+            log.error("Campaign tick failed", e);
+        }
+    }
+
+    private void dial(Campaign campaign, String target) {
+        activeCalls.incrementAndGet();
+        campaign.onDialed();
+        sipAgent.originate(target).whenComplete((cdr, error) -> {
+            activeCalls.decrementAndGet();
+            if (error != null) {
+                log.warn("Campaign {} could not call {}: {}", campaign.getName(), target, error.getMessage());
+            }
+            campaign.onCompleted(cdr);
+        });
+    }
+}
@@ -18,6 +18,14 @@ public class AudioFileLoader {
 
     private static final Logger log = LoggerFactory.getLogger(AudioFileLoader.class);
 
+    /**
+     * 加载 WAV 并在加载时完成静音帧分析；文件缺失或无法解码时返回空提示音。
+     * Loads a WAV and analyses its silent frames up front; returns an empty prompt if the file is missing or unreadable.
+     */
+    public AudioPrompt loadPrompt(Path path) {
+        return AudioPrompt.of(loadMuLawSamples(path));
+    }
+
     public byte[] loadMuLawSamples(Path path) {
         File file = path.toFile();
         if (!file.exists()) {
@@ -0,0 +1,110 @@
+package com.example.sipbot.media;
+
+/**
+ * 已编码为 µ-law 的提示音，加载时一次性按 20 ms 帧标记静音，播放时据此发送舒适噪声（RFC 3389）。
+ * A µ-law prompt whose silent 20 ms frames are found once at load time, so playback can send
+ * comfort noise (RFC 3389) instead of full PCMU frames.
+ */
+public final class AudioPrompt {
+
+    public static final int FRAME_SIZE = 160;
+
+    /**
+     * 帧电平中表示“非静音”的取值。
+     * Frame level marking a frame that carries speech or tones.
+     */
+    public static final byte VOICE = -1;
+
+    private static final AudioPrompt EMPTY = new AudioPrompt(new byte[0], new byte[0]);
+
+    // 峰值低于约 -48 dBov 视为静音。 Peaks below roughly -48 dBov count as silence.
+    private static final int SILENCE_PEAK = 128;
+    private static final int MAX_NOISE_LEVEL = 127;
+
+    private final byte[] muLaw;
+    private final byte[] frameLevels;
+
+    private AudioPrompt(byte[] muLaw, byte[] frameLevels) {
+        this.muLaw = muLaw;
+        this.frameLevels = frameLevels;
+    }
+
+    public static AudioPrompt empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 分析 µ-law 数据：静音帧记录其噪声电平（-dBov，0-127），其它帧记为 {@link #VOICE}。
+     * Analyses µ-law data: silent frames get their noise level in -dBov (0-127), all others {@link #VOICE}.
+     */
+    public static AudioPrompt of(byte[] muLaw) {
+        if (muLaw.length == 0) {
+            return EMPTY;
+        }
+        int frames = (muLaw.length + FRAME_SIZE - 1) / FRAME_SIZE;
+        byte[] levels = new byte[frames];
+        for (int frame = 0; frame < frames; frame++) {
+            int start = frame * FRAME_SIZE;
+            int end = Math.min(start + FRAME_SIZE, muLaw.length);
+            levels[frame] = noiseLevel(muLaw, start, end);
+        }
+        return new AudioPrompt(muLaw, levels);
+    }
+
+    private static byte noiseLevel(byte[] muLaw, int start, int end) {
+        long energy = 0;
+        for (int i = start; i < end; i++) {
+            int sample = MuLawCodec.muLawToLinear(muLaw[i]);
+            if (sample > SILENCE_PEAK || sample < -SILENCE_PEAK) {
+                return VOICE;
+            }
+            energy += (long) sample * sample;
+        }
+        double rms = Math.sqrt((double) energy / (end - start));
+        if (rms < 1) {
+            return MAX_NOISE_LEVEL;
+        }
+        double dBov = 20 * Math.log10(rms / 32768);
+        return (byte) Math.min(MAX_NOISE_LEVEL, Math.max(0, Math.round(-dBov)));
+    }
+
+    public byte[] getMuLaw() {
+        return muLaw;
+    }
+
+    public int length() {
+        return muLaw.length;
+    }
+
+    public boolean isEmpty() {
+        return muLaw.length == 0;
+    }
+
+    /**
+     * [offset, offset + length) 覆盖的分析帧均为静音时返回首帧的噪声电平，否则返回 {@link #VOICE}。
+     * 播放列表拼接后发送帧不一定与分析帧对齐，因此按覆盖范围判断。
+     * Returns the first frame's noise level when every analysed frame overlapping [offset, offset + length) is
+     * silent, otherwise {@link #VOICE}. Frames sent after gapless concatenation need not line up with the
+     * analysed frames, hence the range check.
+     */
+    public byte frameLevel(int offset, int length) {
+        int first = offset / FRAME_SIZE;
+        int last = (offset + length - 1) / FRAME_SIZE;
+        for (int frame = first; frame <= last; frame++) {
+            if (frameLevels[frame] == VOICE) {
+                return VOICE;
+            }
+        }
+        return frameLevels[first];
+    }
+
+    public int silentFrameCount() {
+        int count = 0;
+        for (byte level : frameLevels) {
+            if (level != VOICE) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 每 20 ms 由调度线程调用一次，把播放列表的下一帧打包成 RTP 发往对端。
+ * 稳态下只分配每帧一个 DatagramPacket 外壳：包直接写入池化 ByteBuf，目标地址复用，写操作使用 void promise。
+ * Called by the scheduler every 20 ms to packetize the playlist's next frame as RTP and send it to the peer.
+ * The only steady-state allocation is one DatagramPacket envelope per frame: packets are written straight into
+ * pooled ByteBufs, the destination address is reused, and writes use a void promise.
+ * 协商了 SRTP 时，包在发出前就地加密并追加认证标签，缓冲区预留标签空间以免扩容。
+ * With SRTP negotiated, each packet is encrypted in place and tagged just before it goes out; buffers reserve room
+ * for the tag so they never grow.
+ */
+class FrameSender implements Runnable {
+
+    static final int HEADER_SIZE = 12;
+    // 静音期间每 500 ms 刷新一次舒适噪声。 Refresh comfort noise every 500 ms of silence.
+    private static final int CN_REFRESH_FRAMES = 25;
+    private static final int FRAME_SIZE = AudioPrompt.FRAME_SIZE;
+
+    private final Playlist playlist;
+    private final int comfortNoisePayloadType;
+    private final Channel channel;
+    private final InetSocketAddress remote;
+    private final RtpStreamStats stats;
+    private final Runnable shutdown;
+    private final SrtpTransformer srtp;
+    private final int trailerSize;
+    private AudioPrompt current;
+    private int cursor = 0;
+    private int sequence = 0;
+    private long timestamp = 0;
+    private boolean silent = false;
+    private int silentFrames = 0;
+    private boolean finished = false;
+    private final AtomicReference<ByteBuf> primed = new AtomicReference<>();
+    private final int ssrc = (int) (System.nanoTime() & 0x7FFFFFFF);
+
+    FrameSender(Playlist playlist, int comfortNoisePayloadType, Channel channel, InetSocketAddress remote,
+                RtpStreamStats stats, Runnable shutdown, SrtpTransformer srtp) {
+        this.playlist = playlist;
+        this.comfortNoisePayloadType = comfortNoisePayloadType;
+        this.channel = channel;
+        this.remote = remote;
+        this.stats = stats;
+        this.shutdown = shutdown;
+        this.srtp = srtp;
+        this.trailerSize = srtp != null ? SrtpTransformer.RTP_OVERHEAD : 0;
+    }
+
+    /**
+     * 在通道就绪、开始发送之前预先组好首帧，使启动后的第一个包无需任何准备工作；首个提示音尚未加载完时返回 false，
+     * 且不改变任何发送状态（时间戳、静音标记）。
+     * Builds the first frame ahead of start so the first tick only has to write it. Returns false if the first
+     * prompt has not finished loading yet, leaving the send state (timestamp, silence flag) untouched.
+     */
+    boolean prime() {
+        if (primed.get() != null) {
+            return true;
+        }
+        // 尚无可播放的提示音时不走 nextPacket，否则会把等待加载当作一帧静音计入时间戳。
+        // Skip nextPacket while no prompt is ready; it would count the wait as a silent frame on the timestamp.
+        if (!ensureCurrent()) {
+            return false;
+        }
+        ByteBuf packet = nextPacket();
+        if (packet == null) {
+            return false;
+        }
+        primed.set(packet);
+        return true;
+    }
+
+    /**
+     * 释放未发出的预组帧。
+     * Releases a primed frame that was never sent.
+     */
+    void releasePrimed() {
+        ByteBuf packet = primed.getAndSet(null);
+        if (packet != null) {
+            packet.release();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            ByteBuf packet = primed.getAndSet(null);
+            if (packet == null) {
+                packet = nextPacket();
+            }
+            if (packet != null) {
+                send(packet);
+            } else if (finished) {
+                shutdown.run();
+            }
+        } catch (Exception e) {
+            shutdown.run();
+        }
+    }
+
+    /**
+     * 组出下一个 20 ms 帧；本帧无需发包（舒适噪声静默期、等待加载）或播放结束时返回 null。
+     * Builds the next 20 ms frame. Returns null when nothing goes out this tick (quiet CN period, waiting for a
+     * prompt to load) or when playback is over.
+     */
+    private ByteBuf nextPacket() {
+        if (!ensureCurrent()) {
+            if (playlist.isExhausted()) {
+                finished = true;
+                return null;
+            }
+            // 下一条尚未加载完：时钟继续走，恢复时按新语音段置 marker。
+            // Next entry still loading: keep the clock running and mark the resumed talkspurt.
+            timestamp += FRAME_SIZE;
+            silent = true;
+            return null;
+        }
+        int available = current.length() - cursor;
+        byte level = available >= FRAME_SIZE ? current.frameLevel(cursor, FRAME_SIZE) : AudioPrompt.VOICE;
+        if (comfortNoisePayloadType >= 0 && level != AudioPrompt.VOICE) {
+            // 静音段：首帧及每个刷新周期发一个 CN 包，其余帧只推进时间戳。
+            // Silence: one CN packet at the start and per refresh period; other frames only advance the timestamp.
+            ByteBuf packet = null;
+            if (!silent || ++silentFrames >= CN_REFRESH_FRAMES) {
+                packet = channel.alloc().directBuffer(HEADER_SIZE + 1 + trailerSize);
+                writeHeader(packet, comfortNoisePayloadType, false);
+                packet.writeByte(level);
+                silent = true;
+                silentFrames = 0;
+            }
+            cursor += FRAME_SIZE;
+            timestamp += FRAME_SIZE;
+            return packet;
+        }
+
+        ByteBuf packet = channel.alloc().directBuffer(HEADER_SIZE + FRAME_SIZE + trailerSize);
+        // 静音后的第一个语音包置 marker 位（RFC 3551 4.1）。
+        // The first speech packet after silence carries the marker bit (RFC 3551 4.1).
+        writeHeader(packet, 0, silent);
+        // 帧跨越提示音边界时直接从下一条续填，序号与时间戳保持连续。
+        // A frame that crosses a prompt boundary is topped up from the next prompt; seq and timestamp stay continuous.
+        int filled = 0;
+        while (filled < FRAME_SIZE && ensureCurrent()) {
+            int chunk = Math.min(FRAME_SIZE - filled, current.length() - cursor);
+            packet.writeBytes(current.getMuLaw(), cursor, chunk);
+            cursor += chunk;
+            filled += chunk;
+        }
+        silent = false;
+        timestamp += filled;
+        return packet;
+    }
+
+    /**
+     * 当前提示音播完时切换到下一条已就绪的提示音，并立即预取再下一条。
+     * Moves to the next ready prompt once the current one is done, and immediately prefetches the one after.
+     */
+    private boolean ensureCurrent() {
+        while (current == null || cursor >= current.length()) {
+            AudioPrompt next = playlist.poll();
+            if (next == null) {
+                current = null;
+                return false;
+            }
+            current = next;
+            cursor = 0;
+            playlist.prefetch();
+        }
+        return true;
+    }
+
+    private void writeHeader(ByteBuf packet, int payloadType, boolean marker) {
+        packet.writeByte(0x80); // RTP 版本 2 / V2
+        packet.writeByte((marker ? 0x80 : 0) | payloadType); // PCMU 为 0，CN 为协商值 / PT=0 for PCMU, negotiated for CN
+        packet.writeShort(sequence);
+        packet.writeInt((int) timestamp);
+        packet.writeInt(ssrc);
+        sequence = (sequence + 1) & 0xFFFF;
+    }
+
+    private void send(ByteBuf packet) {
+        int payloadSize = packet.readableBytes() - HEADER_SIZE;
+        long packetTimestamp = packet.getUnsignedInt(packet.readerIndex() + 4);
+        if (srtp != null) {
+            srtp.protectRtp(packet);
+        }
+        channel.writeAndFlush(new DatagramPacket(packet, remote), channel.voidPromise());
+        stats.recordPacket(payloadSize);
+        stats.recordSenderState(ssrc, packetTimestamp, System.nanoTime());
+    }
+}
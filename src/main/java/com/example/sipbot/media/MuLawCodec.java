@@ -18,6 +18,19 @@ public final class MuLawCodec {
         return encoded;
     }
 
+    /**
+     * 将单个 µ-law 字节解码为 16 位线性 PCM。
+     * Decodes a single µ-law byte to 16-bit linear PCM.
+     */
+    public static short muLawToLinear(byte muLaw) {
+        int value = ~muLaw & 0xFF;
+        int sign = value & 0x80;
+        int exponent = (value >> 4) & 0x07;
+        int mantissa = value & 0x0F;
+        int sample = (((mantissa << 3) + BIAS) << exponent) - BIAS;
+        return (short) (sign != 0 ? -sample : sample);
+    }
+
     private static byte linearToMuLaw(short sample) {
         int sign = (sample >> 8) & 0x80;
         if (sign != 0) {
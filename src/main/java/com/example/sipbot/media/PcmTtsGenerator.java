@@ -12,6 +12,14 @@ public class PcmTtsGenerator {
     private static final Logger log = LoggerFactory.getLogger(PcmTtsGenerator.class);
     private static final float SAMPLE_RATE = 8000f;
 
+    /**
+     * 合成音调并在生成时完成静音帧分析（字符间 50 ms 停顿会被标记为静音）。
+     * Synthesizes tones and analyses silent frames up front, so the 50 ms gaps between characters are marked silent.
+     */
+    public AudioPrompt synthesizePrompt(String text) {
+        return AudioPrompt.of(synthesizeMuLaw(text));
+    }
+
     public byte[] synthesizeMuLaw(String text) {
         if (text == null || text.isEmpty()) {
             return new byte[0];
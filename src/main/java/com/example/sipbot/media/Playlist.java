@@ -0,0 +1,92 @@
+package com.example.sipbot.media;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 单通呼叫的提示音播放列表。播放当前提示音时，下一条已在后台解析；发送线程只取已就绪的结果，从不阻塞。
+ * 播放过程中可继续追加条目，列表耗尽即视为播放结束。
+ * Per-call prompt playlist. While one prompt plays, the next is already being resolved in the background; the
+ * sender only takes prompts that are ready and never blocks. Entries may be appended during playback; playback
+ * ends once the list runs dry.
+ */
+public class Playlist {
+
+    private final PromptResolver resolver;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private CompletableFuture<AudioPrompt> next;
+
+    public Playlist(PromptResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * 追加一个条目（{@code file:<路径>} 或 {@code tts:<文本>}）。
+     * Appends an entry ({@code file:<path>} or {@code tts:<text>}).
+     */
+    public Playlist add(String spec) {
+        return add(spec, null);
+    }
+
+    /**
+     * 追加一个条目，并指定其解析为空提示音（文件缺失或无法解码）时改为播放的备用条目；fallback 可为 null。
+     * Appends an entry together with a fallback entry that plays instead when it resolves to an empty prompt, e.g.
+     * a missing or unreadable file; fallback may be null.
+     */
+    public synchronized Playlist add(String spec, String fallback) {
+        pending.add(new Entry(spec, fallback));
+        if (next == null) {
+            prefetch();
+        }
+        return this;
+    }
+
+    /**
+     * 如尚未开始，则开始解析下一条目。
+     * Starts resolving the next entry unless that is already under way.
+     */
+    public synchronized void prefetch() {
+        if (next == null && !pending.isEmpty()) {
+            next = resolve(pending.poll());
+        }
+    }
+
+    private CompletableFuture<AudioPrompt> resolve(Entry entry) {
+        CompletableFuture<AudioPrompt> prompt = resolver.resolveAsync(entry.spec);
+        if (entry.fallback == null) {
+            return prompt;
+        }
+        return prompt.thenCompose(resolved -> resolved.isEmpty()
+                ? resolver.resolveAsync(entry.fallback) : CompletableFuture.completedFuture(resolved));
+    }
+
+    /**
+     * 取出已就绪的下一个提示音；尚未就绪或列表已空时返回 null。
+     * Takes the next prompt if it is ready; returns null while it is still loading or when the list is empty.
+     */
+    synchronized AudioPrompt poll() {
+        prefetch();
+        if (next == null || !next.isDone()) {
+            return null;
+        }
+        AudioPrompt prompt = next.getNow(AudioPrompt.empty());
+        next = null;
+        return prompt;
+    }
+
+    public synchronized boolean isExhausted() {
+        return next == null && pending.isEmpty();
+    }
+
+    private static final class Entry {
+
+        private final String spec;
+        private final String fallback;
+
+        private Entry(String spec, String fallback) {
+            this.spec = spec;
+            this.fallback = fallback;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.sipbot.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 将播放列表条目解析为 {@link AudioPrompt}，在后台线程加载并缓存，避免占用信令或发送线程。
+ * 条目格式：{@code file:<路径>} 或 {@code tts:<文本>}，无前缀时按文件路径处理。缓存按最近最少使用淘汰，
+ * 每次命中文件条目时在加载线程上比较修改时间，文件变化后下一次请求重新加载。
+ * Resolves playlist entries to {@link AudioPrompt}s, loading them on background threads and caching the result so
+ * neither the signaling nor the sender thread ever waits on disk or synthesis. Entries are {@code file:<path>} or
+ * {@code tts:<text>}; anything without a prefix is treated as a file path. The cache evicts the least recently used
+ * entry, and every hit on a file entry compares its modification time on a loader thread so the request after a
+ * file changes loads it again.
+ */
+@Component
+public class PromptResolver {
+
+    public static final String FILE_PREFIX = "file:";
+    public static final String TTS_PREFIX = "tts:";
+
+    private static final Logger log = LoggerFactory.getLogger(PromptResolver.class);
+    static final int MAX_CACHED_PROMPTS = 256;
+
+    private final AudioFileLoader audioFileLoader;
+    private final PcmTtsGenerator ttsGenerator;
+    // 按访问顺序排列，超出容量时淘汰最久未使用的条目；所有访问都在其监视器内。
+    // Access-ordered so the least recently used entry goes once the cache is full; guarded by its own monitor.
+    private final Map<String, CachedPrompt> cache = new LinkedHashMap<String, CachedPrompt>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPrompt> eldest) {
+            return size() > MAX_CACHED_PROMPTS;
+        }
+    };
+    private final AtomicInteger loaderThreads = new AtomicInteger();
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "prompt-loader-" + loaderThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PromptResolver(AudioFileLoader audioFileLoader, PcmTtsGenerator ttsGenerator) {
+        this.audioFileLoader = audioFileLoader;
+        this.ttsGenerator = ttsGenerator;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * 异步解析条目；同一条目的并发请求共享一次加载。加载失败时得到空提示音；失败或为空的结果不缓存，下次请求会重新加载，
+     * 因此文件修复或补上后无需重启即可生效。发现文件已修改的那次请求仍得到旧内容。
+     * Resolves an entry asynchronously; concurrent requests for the same entry share one load. Failures resolve
+     * to an empty prompt. Failed or empty results are not cached and the next request loads again, so a file that
+     * is fixed or added later is picked up without a restart. The request that notices a changed file still gets
+     * the old prompt.
+     */
+    public CompletableFuture<AudioPrompt> resolveAsync(String spec) {
+        CachedPrompt entry;
+        synchronized (cache) {
+            CachedPrompt cached = cache.get(spec);
+            if (cached != null) {
+                revalidate(spec, cached);
+                return cached.prompt;
+            }
+            entry = new CachedPrompt(filePath(spec));
+            cache.put(spec, entry);
+        }
+        loader.execute(() -> {
+            AudioPrompt prompt;
+            try {
+                // 在读取之前取修改时间，读取期间的修改会在下次命中时被发现。
+                // Taken before reading, so a change made during the read is noticed on the next hit.
+                entry.modified = modifiedTime(entry.path);
+                prompt = load(spec);
+            } catch (Exception e) {
+                log.warn("Unable to resolve prompt {}", spec, e);
+                prompt = AudioPrompt.empty();
+            }
+            // 先移出缓存再完成，之后的请求不会拿到这次的空结果。
+            // Evict before completing so no later request can pick up this empty result.
+            if (prompt.isEmpty()) {
+                evict(spec, entry);
+            }
+            entry.prompt.complete(prompt);
+        });
+        return entry.prompt;
+    }
+
+    private void revalidate(String spec, CachedPrompt cached) {
+        if (cached.path == null || !cached.prompt.isDone()) {
+            return;
+        }
+        loader.execute(() -> {
+            if (!cached.isCurrent(modifiedTime(cached.path))) {
+                log.info("Prompt {} changed on disk, reloading on next use", spec);
+                evict(spec, cached);
+            }
+        });
+    }
+
+    private void evict(String spec, CachedPrompt entry) {
+        synchronized (cache) {
+            cache.remove(spec, entry);
+        }
+    }
+
+    private static FileTime modifiedTime(Path path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Path filePath(String spec) {
+        if (spec.startsWith(TTS_PREFIX)) {
+            return null;
+        }
+        return Paths.get(spec.startsWith(FILE_PREFIX) ? spec.substring(FILE_PREFIX.length()) : spec);
+    }
+
+    private AudioPrompt load(String spec) {
+        if (spec.startsWith(TTS_PREFIX)) {
+            return ttsGenerator.synthesizePrompt(spec.substring(TTS_PREFIX.length()));
+        }
+        return audioFileLoader.loadPrompt(filePath(spec));
+    }
+
+    /**
+     * 缓存条目：加载结果，以及文件条目加载时的路径和修改时间（合成条目两者均为 null）。
+     * A cache entry: the load result plus, for file entries, the path and its modification time at load (both null
+     * for synthesized entries).
+     */
+    private static final class CachedPrompt {
+
+        private final CompletableFuture<AudioPrompt> prompt = new CompletableFuture<>();
+        private final Path path;
+        private volatile FileTime modified;
+
+        private CachedPrompt(Path path) {
+            this.path = path;
+        }
+
+        private boolean isCurrent(FileTime current) {
+            return current != null && current.equals(modified);
+        }
+    }
+}
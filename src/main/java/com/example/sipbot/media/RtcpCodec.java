@@ -0,0 +1,143 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * RTCP SR/RR/SDES/BYE 的编解码（RFC 3550 第 6 节），直接读写 {@link ByteBuf}，不产生中间对象。
+ * RTCP SR/RR/SDES/BYE encoding and parsing (RFC 3550 section 6) straight on a {@link ByteBuf}, without
+ * intermediate objects.
+ */
+public final class RtcpCodec {
+
+    static final int PT_SR = 200;
+    static final int PT_RR = 201;
+    static final int PT_SDES = 202;
+    static final int PT_BYE = 203;
+
+    private static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+    private static final int SDES_CNAME = 1;
+
+    private RtcpCodec() {
+    }
+
+    /**
+     * 写入 SR（如已收到对端 RTP 则附带一个接收报告块）和 SDES CNAME，并记下 NTP 时间用于计算往返时延。
+     * Writes an SR, with one report block once the peer's RTP has been seen, followed by an SDES CNAME.
+     * The SR's NTP timestamp is remembered so a later LSR echo yields the round-trip time.
+     */
+    public static void writeSenderReport(ByteBuf out, RtpStreamStats stats, byte[] cname, long nowMillis, long nowNanos) {
+        boolean hasBlock = stats.getPacketsReceived() > 0;
+        int words = 6 + (hasBlock ? 6 : 0);
+        out.writeByte(0x80 | (hasBlock ? 1 : 0));
+        out.writeByte(PT_SR);
+        out.writeShort(words);
+        out.writeInt(stats.getSsrc());
+
+        long ntpSeconds = nowMillis / 1000 + NTP_EPOCH_OFFSET_SECONDS;
+        long ntpFraction = ((nowMillis % 1000) << 32) / 1000;
+        out.writeInt((int) ntpSeconds);
+        out.writeInt((int) ntpFraction);
+
+        long elapsedSamples = (nowNanos - stats.getLastSendNanos()) * RtpStreamStats.CLOCK_RATE / 1_000_000_000L;
+        out.writeInt((int) (stats.getLastRtpTimestamp() + Math.max(0, elapsedSamples)));
+        out.writeInt((int) stats.getPacketsSent());
+        out.writeInt((int) stats.getOctetsSent());
+        if (hasBlock) {
+            writeReportBlock(out, stats, nowNanos);
+        }
+        writeCname(out, stats.getSsrc(), cname);
+        stats.recordSentSenderReport(((ntpSeconds & 0xFFFF) << 16) | (ntpFraction >>> 16));
+    }
+
+    /**
+     * 写入 BYE，通知对端该 SSRC 离开会话。
+     * Writes a BYE announcing that our SSRC leaves the session.
+     */
+    public static void writeBye(ByteBuf out, int ssrc) {
+        out.writeByte(0x81);
+        out.writeByte(PT_BYE);
+        out.writeShort(1);
+        out.writeInt(ssrc);
+    }
+
+    /**
+     * 解析一个 RTCP 复合包，把对端 SR 和针对本端 SSRC 的报告块计入统计。
+     * Parses a compound RTCP packet, feeding the peer's SR and any report block about our SSRC into the stats.
+     */
+    public static void parse(ByteBuf in, RtpStreamStats stats, long nowMillis, long nowNanos) {
+        long arrivalNtpMiddle = ntpMiddle(nowMillis);
+        int index = in.readerIndex();
+        int end = in.writerIndex();
+        while (end - index >= 8) {
+            int first = in.getUnsignedByte(index);
+            if ((first >> 6) != 2) {
+                return;
+            }
+            int count = first & 0x1F;
+            int type = in.getUnsignedByte(index + 1);
+            int length = (in.getUnsignedShort(index + 2) + 1) * 4;
+            if (index + length > end) {
+                return;
+            }
+            int blocks = -1;
+            if (type == PT_SR && length >= 28) {
+                long ntpMiddle = ((in.getUnsignedInt(index + 8) & 0xFFFF) << 16) | (in.getUnsignedInt(index + 12) >>> 16);
+                stats.recordSenderReport(ntpMiddle, nowNanos);
+                blocks = index + 28;
+            } else if (type == PT_RR) {
+                blocks = index + 8;
+            }
+            if (blocks >= 0) {
+                for (int i = 0; i < count && blocks + 24 <= index + length; i++, blocks += 24) {
+                    if (in.getInt(blocks) != stats.getSsrc()) {
+                        continue;
+                    }
+                    int fractionLost = in.getUnsignedByte(blocks + 4);
+                    int cumulativeLost = in.getMedium(blocks + 5);
+                    stats.recordReportBlock(fractionLost, cumulativeLost, in.getUnsignedInt(blocks + 12),
+                            in.getUnsignedInt(blocks + 16), in.getUnsignedInt(blocks + 20), arrivalNtpMiddle);
+                }
+            }
+            index += length;
+        }
+    }
+
+    static long ntpMiddle(long millis) {
+        long seconds = millis / 1000 + NTP_EPOCH_OFFSET_SECONDS;
+        long fraction = ((millis % 1000) << 32) / 1000;
+        return ((seconds & 0xFFFF) << 16) | (fraction >>> 16);
+    }
+
+    private static void writeReportBlock(ByteBuf out, RtpStreamStats stats, long nowNanos) {
+        // 在统计对象锁内一次取齐接收状态，避免与事件循环上的 SSRC 切换或序号重同步交错。
+        // Take the receive state in one go under the stats lock, so it cannot interleave with an SSRC change or
+        // sequence resync on the event loop.
+        synchronized (stats) {
+            long cumulativeLost = Math.min(stats.getPacketsLost(), 0x7FFFFF);
+            out.writeInt(stats.getRemoteSsrc());
+            out.writeByte(stats.takeFractionLost());
+            out.writeMedium((int) cumulativeLost);
+            out.writeInt((int) stats.getExtendedHighestSequence());
+            out.writeInt((int) stats.getJitter());
+        }
+        long lsr = stats.getLastSrNtpMiddle();
+        out.writeInt((int) lsr);
+        long dlsr = lsr == 0 ? 0 : ((nowNanos - stats.getLastSrArrivalNanos()) << 16) / 1_000_000_000L;
+        out.writeInt((int) dlsr);
+    }
+
+    private static void writeCname(ByteBuf out, int ssrc, byte[] cname) {
+        // 头 4 + SSRC 4 + 类型 1 + 长度 1 + 文本 + 至少一个结束零，按 4 字节对齐。
+        // Header 4 + SSRC 4 + type 1 + length 1 + text + at least one terminating zero, padded to 32 bits.
+        int itemBytes = 2 + cname.length;
+        int chunkBytes = 4 + ((itemBytes + 1 + 3) & ~3);
+        out.writeByte(0x81);
+        out.writeByte(PT_SDES);
+        out.writeShort(chunkBytes / 4);
+        out.writeInt(ssrc);
+        out.writeByte(SDES_CNAME);
+        out.writeByte(cname.length);
+        out.writeBytes(cname);
+        out.writeZero(chunkBytes - 4 - itemBytes);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 周期性发送 SR，结束时发送 SR + BYE。与 {@link FrameSender} 一样由共享的发送调度器驱动。
+ * Sends periodic SRs and a final SR + BYE. Scheduled on the shared pacing executor next to the {@link FrameSender}.
+ */
+class RtcpReporter implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(RtcpReporter.class);
+
+    private final Channel channel;
+    private final InetSocketAddress remote;
+    private final RtpStreamStats stats;
+    private final byte[] cname;
+    private final SrtpTransformer srtp;
+
+    RtcpReporter(Channel channel, InetSocketAddress remote, RtpStreamStats stats, byte[] cname, SrtpTransformer srtp) {
+        this.channel = channel;
+        this.remote = remote;
+        this.stats = stats;
+        this.cname = cname;
+        this.srtp = srtp;
+    }
+
+    @Override
+    public void run() {
+        send(false);
+    }
+
+    void sendBye() {
+        send(true);
+    }
+
+    private void send(boolean bye) {
+        if (stats.getPacketsSent() == 0 || !channel.isActive()) {
+            return;
+        }
+        ByteBuf buf = channel.alloc().buffer(128 + SrtpTransformer.RTCP_OVERHEAD);
+        try {
+            RtcpCodec.writeSenderReport(buf, stats, cname, System.currentTimeMillis(), System.nanoTime());
+            if (bye) {
+                RtcpCodec.writeBye(buf, stats.getSsrc());
+            }
+            if (srtp != null) {
+                srtp.protectRtcp(buf);
+            }
+        } catch (RuntimeException e) {
+            buf.release();
+            log.debug("Failed to build RTCP report", e);
+            return;
+        }
+        channel.writeAndFlush(new DatagramPacket(buf, remote));
+    }
+}
@@ -1,10 +1,13 @@
 package com.example.sipbot.media;
 
+import com.example.sipbot.config.SipProperties;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioDatagramChannel;
@@ -12,113 +15,148 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.Closeable;
+import javax.annotation.PreDestroy;
 import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class RtpAudioStreamer {
 
     private static final Logger log = LoggerFactory.getLogger(RtpAudioStreamer.class);
 
-    public Closeable stream(String remoteHost, int remotePort, int localPort, byte[] muLaw, Runnable onFinished) {
-        if (muLaw.length == 0) {
-            log.warn("No audio payload available; skipping RTP stream");
-            return () -> { };
+    private final byte[] cname;
+    // 所有呼叫共享事件循环与发送调度器，建立一路流不再创建线程。
+    // Event loops and the pacing executor are shared by all calls, so setting up a stream creates no threads.
+    private final EventLoopGroup group = new NioEventLoopGroup();
+    private final AtomicInteger pacerThreads = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread thread = new Thread(r, "rtp-pacer-" + pacerThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final Bootstrap bootstrap = new Bootstrap()
+            .group(group)
+            .channel(NioDatagramChannel.class)
+            .option(ChannelOption.SO_REUSEADDR, true);
+
+    public RtpAudioStreamer(SipProperties properties) {
+        this.cname = ("sipbot@" + properties.getLocalAddress()).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        group.shutdownGracefully();
+    }
+
+    /**
+     * 准备一路 RTP 播放：异步绑定 RTP（localPort）与 RTCP（localPort + 1）端口并预组首帧，但不开始发送。
+     * 应在处理 INVITE 时调用，使绑定与首帧准备和 200 OK/ACK 往返并行。
+     * comfortNoisePayloadType 为对端提供的 CN 负载类型，-1 表示静音帧按普通 PCMU 发送。
+     * Prepares an RTP playback: binds RTP (localPort) and RTCP (localPort + 1) asynchronously and builds the first
+     * frame, without sending anything yet. Call it while handling the INVITE so socket setup overlaps the 200 OK/ACK
+     * round trip. comfortNoisePayloadType is the CN payload type offered by the peer, or -1 to send silent frames as
+     * plain PCMU. srtp 为协商出的 SRTP 上下文，明文 RTP 时为 null。
+     * srtp is the negotiated SRTP context, or null for plain RTP.
+     */
+    public RtpStream prepare(String remoteHost, int remotePort, int remoteRtcpPort, int localPort, Playlist playlist,
+                             int comfortNoisePayloadType, RtpStreamStats stats, Runnable onFinished,
+                             SrtpTransformer srtp) {
+        if (playlist.isExhausted()) {
+            log.warn("No audio payload available; stream will end immediately");
+        }
+        // RTP 通道不连接：已连接的 UDP 套接字会丢弃来自其它源地址的包，而 NAT 后或收发不对称的对端正是从别的地址发来。
+        // 发送时每帧包一个 DatagramPacket，目标地址对象整通呼叫复用。
+        // The RTP channel stays unconnected: a connected UDP socket drops datagrams from any other source address,
+        // which is exactly where NATed or asymmetric peers send from. Each frame goes out in a DatagramPacket that
+        // reuses one destination address for the whole call.
+        InetSocketAddress remote = new InetSocketAddress(remoteHost, remotePort);
+        ChannelFuture rtp = bootstrap.clone()
+                .handler(new RtpReceiveHandler(stats))
+                .bind(localPort);
+        ChannelFuture rtcp = bootstrap.clone()
+                .handler(new RtcpReceiveHandler(stats, srtp))
+                .bind(localPort + 1);
+        RtcpReporter reporter = new RtcpReporter(rtcp.channel(), new InetSocketAddress(remoteHost, remoteRtcpPort), stats, cname,
+                srtp);
+
+        RtpStream stream = new RtpStream(rtp, rtcp, remote, playlist, comfortNoisePayloadType, stats, reporter, scheduler,
+                onFinished, srtp);
+        stream.prime();
+        log.debug("Prepared mu-law playlist for {}:{} from local UDP {}", remoteHost, remotePort, localPort);
+        return stream;
+    }
+
+    /**
+     * 对端先关闭端口时，部分平台会把 ICMP 端口不可达报告给发送套接字，属于正常挂机过程。
+     * Some platforms report ICMP port unreachable on the sending socket when the peer closes its ports first, which
+     * is a normal part of hanging up.
+     */
+    private static void logReceiveError(Throwable cause) {
+        if (cause instanceof PortUnreachableException) {
+            log.debug("Peer RTP port closed: {}", cause.toString());
+        } else {
+            log.warn("RTP/RTCP receive error", cause);
+        }
+    }
+
+    /**
+     * 入站 RTP 只做统计（序号、丢包、抖动），不解码负载。
+     * Inbound RTP is only accounted for (sequence, loss, jitter); payloads are not decoded.
+     */
+    private static class RtpReceiveHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        private final RtpStreamStats stats;
+
+        RtpReceiveHandler(RtpStreamStats stats) {
+            this.stats = stats;
         }
 
-        EventLoopGroup group = new NioEventLoopGroup(1);
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        try {
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group)
-                    .channel(NioDatagramChannel.class)
-                    .option(ChannelOption.SO_REUSEADDR, true)
-                    .handler(new io.netty.channel.SimpleChannelInboundHandler<DatagramPacket>() {
-                        @Override
-                        protected void channelRead0(io.netty.channel.ChannelHandlerContext ctx, DatagramPacket msg) {
-                            // 播放流程无需处理入站数据。
-                            // No inbound handling required for playback.
-                        }
-                    });
-
-            Channel channel = bootstrap.bind(localPort).sync().channel();
-            log.info("Streaming {} bytes of mu-law audio to {}:{} from local UDP {}", muLaw.length, remoteHost, remotePort, localPort);
-
-            AtomicBoolean closed = new AtomicBoolean(false);
-            Runnable shutdown = () -> {
-                if (closed.compareAndSet(false, true)) {
-                    scheduler.shutdownNow();
-                    channel.close();
-                    group.shutdownGracefully();
-                    if (onFinished != null) {
-                        onFinished.run();
-                    }
-                }
-            };
-
-            scheduler.scheduleAtFixedRate(new FrameSender(muLaw, channel, remoteHost, remotePort, shutdown), 0, 20, TimeUnit.MILLISECONDS);
-            return shutdown::run;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            group.shutdownGracefully();
-            scheduler.shutdownNow();
-            throw new IllegalStateException("Failed to start RTP streaming", e);
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
+            ByteBuf content = msg.content();
+            int offset = content.readerIndex();
+            if (content.readableBytes() < 12 || (content.getUnsignedByte(offset) >> 6) != 2) {
+                return;
+            }
+            stats.recordReceived(content.getUnsignedShort(offset + 2), content.getUnsignedInt(offset + 4),
+                    content.getInt(offset + 8), System.nanoTime());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logReceiveError(cause);
         }
     }
 
-    private static class FrameSender implements Runnable {
-        private final byte[] audio;
-        private final Channel channel;
-        private final InetSocketAddress remote;
-        private final Runnable shutdown;
-        private int cursor = 0;
-        private int sequence = 0;
-        private long timestamp = 0;
-        private final int ssrc = (int) (System.nanoTime() & 0x7FFFFFFF);
-
-        FrameSender(byte[] audio, Channel channel, String remoteHost, int remotePort, Runnable shutdown) {
-            this.audio = audio;
-            this.channel = channel;
-            this.remote = new InetSocketAddress(remoteHost, remotePort);
-            this.shutdown = shutdown;
+    /**
+     * 入站 RTCP 解析接收报告；SRTP 呼叫中未通过认证的包直接丢弃。
+     * Inbound RTCP is parsed for reception reports; on SRTP calls packets failing authentication are dropped.
+     */
+    private static class RtcpReceiveHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        private final RtpStreamStats stats;
+        private final SrtpTransformer srtp;
+
+        RtcpReceiveHandler(RtpStreamStats stats, SrtpTransformer srtp) {
+            this.stats = stats;
+            this.srtp = srtp;
         }
 
         @Override
-        public void run() {
-            try {
-                if (cursor >= audio.length) {
-                    shutdown.run();
-                    return;
-                }
-                int payloadSize = Math.min(160, audio.length - cursor);
-                byte[] packet = new byte[12 + payloadSize];
-                packet[0] = (byte) 0x80; // RTP 版本 2
-                packet[1] = 0; // 负载类型 0（PCMU）
-                packet[0] = (byte) 0x80; // V2
-                packet[1] = 0; // PT=0 (PCMU)
-                packet[2] = (byte) ((sequence >> 8) & 0xFF);
-                packet[3] = (byte) (sequence & 0xFF);
-                packet[4] = (byte) ((timestamp >> 24) & 0xFF);
-                packet[5] = (byte) ((timestamp >> 16) & 0xFF);
-                packet[6] = (byte) ((timestamp >> 8) & 0xFF);
-                packet[7] = (byte) (timestamp & 0xFF);
-                packet[8] = (byte) ((ssrc >> 24) & 0xFF);
-                packet[9] = (byte) ((ssrc >> 16) & 0xFF);
-                packet[10] = (byte) ((ssrc >> 8) & 0xFF);
-                packet[11] = (byte) (ssrc & 0xFF);
-                System.arraycopy(audio, cursor, packet, 12, payloadSize);
-
-                channel.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(packet), remote));
-                cursor += payloadSize;
-                sequence++;
-                timestamp += payloadSize;
-            } catch (Exception e) {
-                shutdown.run();
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
+            if (srtp != null && !srtp.unprotectRtcp(msg.content())) {
+                return;
             }
+            RtcpCodec.parse(msg.content(), stats, System.currentTimeMillis(), System.nanoTime());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logReceiveError(cause);
         }
     }
 }
@@ -0,0 +1,45 @@
+package com.example.sipbot.media;
+
+import com.example.sipbot.config.SipProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 本地 RTP 端口池。每通呼叫租用一对端口（RTP 与 RTCP = RTP + 1），呼叫结束后归还，使并发呼叫互不共用套接字。
+ * Pool of local RTP ports. Each call leases a port pair (RTP, and RTCP on RTP + 1) and returns it when the call
+ * ends, so concurrent calls never share sockets.
+ */
+@Component
+public class RtpPortPool {
+
+    private final Queue<Integer> free = new ConcurrentLinkedQueue<>();
+
+    public RtpPortPool(SipProperties properties) {
+        int first = properties.getRtpPort();
+        int last = Math.max(first + 1, properties.getRtpPortMax());
+        for (int port = first; port + 1 <= last; port += 2) {
+            free.add(port);
+        }
+    }
+
+    /**
+     * 租用一个 RTP 端口；端口耗尽时返回 -1。
+     * Leases an RTP port, or returns -1 when the range is exhausted.
+     */
+    public int lease() {
+        Integer port = free.poll();
+        return port != null ? port : -1;
+    }
+
+    public void release(int port) {
+        if (port > 0) {
+            free.add(port);
+        }
+    }
+
+    public int available() {
+        return free.size();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.sipbot.media;
+
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 已预先绑定端口、预组首帧的单路 RTP 播放。{@link #start()} 只需把发送任务交给调度器，首包在亚毫秒内发出。
+ * One RTP playback whose sockets are bound and first frame built ahead of time; {@link #start()} only hands the
+ * sender to the pacing executor, so the first packet leaves within well under a millisecond.
+ */
+public class RtpStream implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RtpStream.class);
+    private static final long FRAME_INTERVAL_MILLIS = 20;
+    private static final long RTCP_INTERVAL_MILLIS = 5000;
+
+    private final ChannelFuture rtp;
+    private final ChannelFuture rtcp;
+    private final FrameSender sender;
+    private final RtcpReporter reporter;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable onFinished;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile ScheduledFuture<?> frameTask;
+    private volatile ScheduledFuture<?> reportTask;
+
+    RtpStream(ChannelFuture rtp, ChannelFuture rtcp, InetSocketAddress remote, Playlist playlist, int comfortNoisePayloadType,
+              RtpStreamStats stats, RtcpReporter reporter, ScheduledExecutorService scheduler, Runnable onFinished,
+              SrtpTransformer srtp) {
+        this.rtp = rtp;
+        this.rtcp = rtcp;
+        this.sender = new FrameSender(playlist, comfortNoisePayloadType, rtp.channel(), remote, stats, this::close, srtp);
+        this.reporter = reporter;
+        this.scheduler = scheduler;
+        this.onFinished = onFinished;
+    }
+
+    void prime() {
+        sender.prime();
+    }
+
+    /**
+     * 开始发送；可重复调用。若端口仍在绑定中，则在绑定完成后立即开始。
+     * Starts sending; calling it again is harmless. If the sockets are still binding, sending begins as soon as
+     * they are ready.
+     */
+    public void start() {
+        if (closed.get() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        if (rtp.isDone()) {
+            schedule();
+        } else {
+            rtp.addListener(f -> schedule());
+        }
+    }
+
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    private void schedule() {
+        if (!rtp.isSuccess()) {
+            log.warn("RTP channel could not be opened", rtp.cause());
+            close();
+            return;
+        }
+        frameTask = scheduler.scheduleAtFixedRate(sender, 0, FRAME_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        reportTask = scheduler.scheduleAtFixedRate(reporter, RTCP_INTERVAL_MILLIS, RTCP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (closed.get()) {
+            cancelTasks();
+        }
+    }
+
+    /**
+     * 停止发送并释放端口；首次调用时发送 RTCP BYE 并执行结束回调。
+     * Stops sending and releases the sockets; the first call sends an RTCP BYE and runs the completion callback.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        cancelTasks();
+        sender.releasePrimed();
+        if (rtcp.isSuccess()) {
+            reporter.sendBye();
+        }
+        rtp.channel().close();
+        rtcp.channel().close();
+        if (onFinished != null) {
+            onFinished.run();
+        }
+    }
+
+    private void cancelTasks() {
+        ScheduledFuture<?> frames = frameTask;
+        if (frames != null) {
+            frames.cancel(false);
+        }
+        ScheduledFuture<?> reports = reportTask;
+        if (reports != null) {
+            reports.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.sipbot.media;
+
+/**
+ * 单路 RTP 的收发统计与 RTCP 质量指标（RFC 3550），全部为基本类型字段，逐包更新不分配对象。
+ * 发送计数由发送线程写入，RTCP 报告字段由 Netty 事件循环写入。入站序号状态由 RTP 事件循环写入，同时被 RTCP
+ * 发送线程读取并推进报告间隔，因此这部分状态只在对象锁内修改，报告块也在同一把锁内一次取值（无竞争时的锁不分配对象）。
+ * Per-stream RTP counters and RFC 3550 quality estimates kept in primitive fields and updated per packet
+ * without allocation. Send counters are written by the sender thread and RTCP report fields by the Netty event
+ * loop. Inbound sequence state is written by the RTP event loop but also read, and its report interval advanced,
+ * by the RTCP sender thread, so that state only changes under this object's lock and a report block is taken
+ * under the same lock in one go. An uncontended lock allocates nothing.
+ */
+public class RtpStreamStats {
+
+    static final int CLOCK_RATE = 8000;
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+    private static final int SEQ_MOD = 1 << 16;
+
+    private volatile long firstPacketMillis;
+    private volatile long firstPacketNanos;
+    private volatile long packetsSent;
+    private volatile long octetsSent;
+    private volatile int ssrc;
+    private volatile long lastRtpTimestamp;
+    private volatile long lastSendNanos;
+
+    // 入站 RTP（RFC 3550 附录 A.1/A.8）。 Inbound RTP, RFC 3550 appendix A.1/A.8.
+    private volatile long packetsReceived;
+    private volatile int remoteSsrc;
+    private volatile int baseSeq = -1;
+    private volatile int maxSeq;
+    private volatile long cycles;
+    private volatile long jitterScaled;
+    // 以下字段由对象锁保护。 Guarded by this object's lock.
+    private long lastTransit;
+    private int badSeq = SEQ_MOD + 1;
+    private long expectedPrior;
+    private long receivedPrior;
+
+    // 对端 RTCP 报告。 Reports received from the peer.
+    private volatile long lastSrNtpMiddle;
+    private volatile long lastSrArrivalNanos;
+    private volatile long lastSentSrNtpMiddle;
+    private volatile int remoteFractionLost;
+    private volatile int remoteCumulativeLost;
+    private volatile long remoteJitter;
+    private volatile long roundTripMicros = -1;
+    private volatile long reportsReceived;
+
+    void recordPacket(int payloadSize) {
+        if (packetsSent == 0) {
+            firstPacketNanos = System.nanoTime();
+            firstPacketMillis = System.currentTimeMillis();
+        }
+        packetsSent = packetsSent + 1;
+        octetsSent = octetsSent + payloadSize;
+    }
+
+    void recordSenderState(int ssrc, long rtpTimestamp, long nowNanos) {
+        this.ssrc = ssrc;
+        this.lastRtpTimestamp = rtpTimestamp;
+        this.lastSendNanos = nowNanos;
+    }
+
+    /**
+     * 处理一个入站 RTP 包：序号跟踪（A.1）与到达间隔抖动（A.8）。
+     * Accounts for one inbound RTP packet: sequence tracking (A.1) and interarrival jitter (A.8).
+     */
+    synchronized void recordReceived(int sequence, long rtpTimestamp, int senderSsrc, long arrivalNanos) {
+        long arrival = arrivalNanos / (1_000_000_000L / CLOCK_RATE);
+        if (baseSeq < 0 || senderSsrc != remoteSsrc) {
+            remoteSsrc = senderSsrc;
+            baseSeq = sequence;
+            maxSeq = sequence;
+            cycles = 0;
+            badSeq = SEQ_MOD + 1;
+            expectedPrior = 0;
+            receivedPrior = 0;
+            packetsReceived = 1;
+            jitterScaled = 0;
+            lastTransit = arrival - rtpTimestamp;
+            return;
+        }
+        int delta = (sequence - maxSeq) & 0xFFFF;
+        if (delta < MAX_DROPOUT) {
+            if (sequence < maxSeq) {
+                cycles = cycles + SEQ_MOD;
+            }
+            maxSeq = sequence;
+        } else if (delta <= SEQ_MOD - MAX_MISORDER) {
+            if (sequence == badSeq) {
+                // 对端重启了序号，重新同步。 Peer restarted its sequence; resync.
+                baseSeq = sequence;
+                maxSeq = sequence;
+                cycles = 0;
+                expectedPrior = 0;
+                receivedPrior = 0;
+                packetsReceived = 0;
+            } else {
+                badSeq = (sequence + 1) & 0xFFFF;
+                return;
+            }
+        }
+        packetsReceived = packetsReceived + 1;
+
+        long transit = arrival - rtpTimestamp;
+        long d = transit - lastTransit;
+        lastTransit = transit;
+        if (d < 0) {
+            d = -d;
+        }
+        jitterScaled = jitterScaled + d - ((jitterScaled + 8) >> 4);
+    }
+
+    void recordSenderReport(long ntpMiddle, long arrivalNanos) {
+        lastSrNtpMiddle = ntpMiddle & 0xFFFFFFFFL;
+        lastSrArrivalNanos = arrivalNanos;
+    }
+
+    void recordSentSenderReport(long ntpMiddle) {
+        lastSentSrNtpMiddle = ntpMiddle & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 处理对端关于本端 SSRC 的接收报告块，更新丢包、抖动与往返时延（RFC 3550 6.4.1）。
+     * Applies the peer's report block about our SSRC, updating loss, jitter and round-trip time (RFC 3550 6.4.1).
+     */
+    void recordReportBlock(int fractionLost, int cumulativeLost, long jitter, long lsr, long dlsr, long arrivalNtpMiddle) {
+        remoteFractionLost = fractionLost;
+        remoteCumulativeLost = cumulativeLost;
+        remoteJitter = jitter;
+        reportsReceived = reportsReceived + 1;
+        if (lsr != 0 && lsr == lastSentSrNtpMiddle) {
+            long rtt = (arrivalNtpMiddle - lsr - dlsr) & 0xFFFFFFFFL;
+            // 中间 32 位 NTP 以 1/65536 秒为单位。 Middle 32 NTP bits are in 1/65536 s.
+            if (rtt < 0x8000_0000L) {
+                roundTripMicros = rtt * 1_000_000L >> 16;
+            }
+        }
+    }
+
+    /**
+     * 计算本次报告间隔内的丢包比例（A.3），并推进间隔起点；只由 RTCP 发送方调用。
+     * Computes the fraction lost over the current report interval (A.3) and starts a new interval; RTCP sender only.
+     */
+    synchronized int takeFractionLost() {
+        long expected = getExpectedPackets();
+        long received = packetsReceived;
+        long expectedInterval = expected - expectedPrior;
+        long receivedInterval = received - receivedPrior;
+        expectedPrior = expected;
+        receivedPrior = received;
+        long lostInterval = expectedInterval - receivedInterval;
+        if (expectedInterval == 0 || lostInterval <= 0) {
+            return 0;
+        }
+        return (int) ((lostInterval << 8) / expectedInterval);
+    }
+
+    public long getFirstPacketMillis() {
+        return firstPacketMillis;
+    }
+
+    /**
+     * 首个 RTP 包发出时的 {@link System#nanoTime()}，用于测量首包时延；尚未发送时为 0。
+     * {@link System#nanoTime()} of the first RTP packet, for first-packet latency; 0 if nothing was sent yet.
+     */
+    public long getFirstPacketNanos() {
+        return firstPacketNanos;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * 已发送的负载字节数（不含 RTP 头）。
+     * Payload bytes sent, excluding RTP headers.
+     */
+    public long getOctetsSent() {
+        return octetsSent;
+    }
+
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    long getLastRtpTimestamp() {
+        return lastRtpTimestamp;
+    }
+
+    long getLastSendNanos() {
+        return lastSendNanos;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public int getRemoteSsrc() {
+        return remoteSsrc;
+    }
+
+    public long getExtendedHighestSequence() {
+        return cycles + maxSeq;
+    }
+
+    public synchronized long getExpectedPackets() {
+        if (baseSeq < 0) {
+            return 0;
+        }
+        return getExtendedHighestSequence() - baseSeq + 1;
+    }
+
+    /**
+     * 本端观测到的入站累计丢包数。
+     * Inbound packets lost as observed locally.
+     */
+    public synchronized long getPacketsLost() {
+        return Math.max(0, getExpectedPackets() - packetsReceived);
+    }
+
+    /**
+     * 本端观测到的入站抖动（时间戳单位）。
+     * Inbound interarrival jitter observed locally, in timestamp units.
+     */
+    public long getJitter() {
+        return jitterScaled >> 4;
+    }
+
+    public double getJitterMillis() {
+        return getJitter() * 1000.0 / CLOCK_RATE;
+    }
+
+    long getLastSrNtpMiddle() {
+        return lastSrNtpMiddle;
+    }
+
+    long getLastSrArrivalNanos() {
+        return lastSrArrivalNanos;
+    }
+
+    /**
+     * 对端报告的最近一个间隔丢包比例（0-255，即 1/256 为单位）。
+     * Fraction of our packets lost in the peer's last interval, in 1/256 units.
+     */
+    public int getRemoteFractionLost() {
+        return remoteFractionLost;
+    }
+
+    public int getRemoteCumulativeLost() {
+        return remoteCumulativeLost;
+    }
+
+    /**
+     * 对端报告的抖动（时间戳单位）。
+     * Jitter reported by the peer, in timestamp units.
+     */
+    public long getRemoteJitter() {
+        return remoteJitter;
+    }
+
+    public double getRemoteJitterMillis() {
+        return remoteJitter * 1000.0 / CLOCK_RATE;
+    }
+
+    /**
+     * 由 LSR/DLSR 计算的往返时延（微秒），尚无样本时为 -1。
+     * Round-trip time derived from LSR/DLSR in microseconds, or -1 without a sample.
+     */
+    public long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    public long getReportsReceived() {
+        return reportsReceived;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * 经 SDES（SDP a=crypto）协商的 SRTP/SRTCP，套件 AES_CM_128_HMAC_SHA1_80（RFC 3711、RFC 4568）。
+ * 本端主密钥用于加密发出的 RTP/RTCP，对端主密钥用于校验并解密收到的 SRTCP；入站 RTP 只统计明文头部，不解密负载。
+ * 每个方向复用各自的 AES 实例、摘要实例与临时缓冲：包先复制到临时数组，就地异或密钥流并计算认证标签后写回，
+ * 逐包不产生任何分配。HMAC-SHA1 由两个 MessageDigest 按 RFC 2104 组合而成，因为 {@code Mac.doFinal} 每次都会
+ * 分配结果数组。
+ * SRTP/SRTCP keyed through SDES (SDP a=crypto) with the AES_CM_128_HMAC_SHA1_80 suite (RFC 3711, RFC 4568). The
+ * local master key protects outgoing RTP/RTCP; the peer's master key authenticates and decrypts incoming SRTCP.
+ * Inbound RTP is only accounted for from its clear-text header, so its payload is never decrypted. Each direction
+ * reuses its own AES instance, digests and scratch buffers: a packet is copied to a scratch array, the keystream is
+ * XORed in place and the tag computed, then it is written back, with no per-packet allocation. HMAC-SHA1 is built
+ * from two MessageDigests per RFC 2104 because {@code Mac.doFinal} allocates its result on every call.
+ */
+public final class SrtpTransformer {
+
+    public static final String SUITE = "AES_CM_128_HMAC_SHA1_80";
+    /**
+     * SDP inline 密钥长度：16 字节主密钥 + 14 字节主盐。
+     * Length of the SDP inline key: a 16-byte master key followed by a 14-byte master salt.
+     */
+    public static final int INLINE_KEY_LENGTH = 30;
+    /**
+     * 保护后 RTP 包增加的字节数（认证标签）。
+     * Bytes added to an RTP packet by protection: the authentication tag.
+     */
+    public static final int RTP_OVERHEAD = 10;
+    /**
+     * 保护后 RTCP 包增加的字节数（E 位 + SRTCP 索引 + 认证标签）。
+     * Bytes added to an RTCP packet by protection: E flag plus SRTCP index, then the authentication tag.
+     */
+    public static final int RTCP_OVERHEAD = 14;
+
+    static final int MASTER_KEY_LENGTH = 16;
+    static final int MASTER_SALT_LENGTH = 14;
+    static final int LABEL_RTP_ENCRYPTION = 0;
+    static final int LABEL_RTP_AUTH = 1;
+    static final int LABEL_RTP_SALT = 2;
+    static final int LABEL_RTCP_ENCRYPTION = 3;
+    static final int LABEL_RTCP_AUTH = 4;
+    static final int LABEL_RTCP_SALT = 5;
+
+    private static final int AUTH_TAG_LENGTH = 10;
+    private static final int AUTH_KEY_LENGTH = 20;
+    private static final int MAX_PACKET_SIZE = 1500;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Engine rtpOut;
+    private final Engine rtcpOut;
+    private final Engine rtcpIn;
+    // 仅由发送线程访问。 Only touched by the sending thread.
+    private int rolloverCounter;
+    private int lastSequence = -1;
+    private int srtcpIndex;
+
+    /**
+     * localKey 与 remoteKey 均为 SDP inline 格式（主密钥 + 主盐，共 30 字节）。
+     * localKey and remoteKey are both in SDP inline form: master key followed by master salt, 30 bytes.
+     */
+    public SrtpTransformer(byte[] localKey, byte[] remoteKey) {
+        this.rtpOut = new Engine(localKey, LABEL_RTP_ENCRYPTION, LABEL_RTP_AUTH, LABEL_RTP_SALT);
+        this.rtcpOut = new Engine(localKey, LABEL_RTCP_ENCRYPTION, LABEL_RTCP_AUTH, LABEL_RTCP_SALT);
+        this.rtcpIn = new Engine(remoteKey, LABEL_RTCP_ENCRYPTION, LABEL_RTCP_AUTH, LABEL_RTCP_SALT);
+    }
+
+    /**
+     * 为一通呼叫随机生成本端 inline 密钥。
+     * Generates a random local inline key for one call.
+     */
+    public static byte[] generateInlineKey() {
+        byte[] key = new byte[INLINE_KEY_LENGTH];
+        RANDOM.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * 就地加密 RTP 负载并追加认证标签；必须按序号顺序调用，以便跟踪翻转计数（ROC）。
+     * Encrypts the RTP payload in place and appends the authentication tag. Must be called in sequence order so
+     * the rollover counter (ROC) can be tracked.
+     */
+    public void protectRtp(ByteBuf packet) {
+        int start = packet.readerIndex();
+        int length = packet.readableBytes();
+        byte[] work = rtpOut.load(packet, start, length);
+        int sequence = ((work[2] & 0xFF) << 8) | (work[3] & 0xFF);
+        if (lastSequence >= 0 && sequence < lastSequence && lastSequence - sequence > 0x8000) {
+            rolloverCounter++;
+        }
+        lastSequence = sequence;
+        int headerLength = rtpHeaderLength(work, length);
+        rtpOut.applyKeystream(headerLength, length - headerLength, readInt(work, 8),
+                ((long) rolloverCounter << 16) | sequence);
+        writeInt(work, length, rolloverCounter);
+        rtpOut.authenticate(length + 4);
+        packet.setBytes(start, work, 0, length);
+        packet.writeBytes(rtpOut.digest, 0, AUTH_TAG_LENGTH);
+    }
+
+    /**
+     * 就地加密复合 RTCP 包（首个 8 字节头部之后的部分），追加 E 位与 SRTCP 索引以及认证标签。
+     * Encrypts a compound RTCP packet in place after its first 8-byte header, then appends the E flag with the
+     * SRTCP index and the authentication tag.
+     */
+    public synchronized void protectRtcp(ByteBuf packet) {
+        int start = packet.readerIndex();
+        int length = packet.readableBytes();
+        byte[] work = rtcpOut.load(packet, start, length);
+        int index = srtcpIndex;
+        srtcpIndex = (srtcpIndex + 1) & 0x7FFFFFFF;
+        rtcpOut.applyKeystream(8, length - 8, readInt(work, 4), index);
+        writeInt(work, length, 0x80000000 | index);
+        rtcpOut.authenticate(length + 4);
+        packet.setBytes(start, work, 0, length);
+        packet.writeBytes(work, length, 4);
+        packet.writeBytes(rtcpOut.digest, 0, AUTH_TAG_LENGTH);
+    }
+
+    /**
+     * 校验收到的 SRTCP 包并就地解密，成功后去掉尾部（索引与标签）；认证失败或长度不足时返回 false，包内容不变。
+     * Authenticates an incoming SRTCP packet and decrypts it in place, trimming the index and tag on success.
+     * Returns false, leaving the packet untouched, when it is too short or fails authentication.
+     */
+    public synchronized boolean unprotectRtcp(ByteBuf packet) {
+        int start = packet.readerIndex();
+        int length = packet.readableBytes();
+        if (length < 8 + RTCP_OVERHEAD || length > MAX_PACKET_SIZE + RTCP_OVERHEAD) {
+            return false;
+        }
+        int authenticated = length - AUTH_TAG_LENGTH;
+        byte[] work = rtcpIn.load(packet, start, length);
+        rtcpIn.authenticate(authenticated);
+        if (!rtcpIn.tagMatches(work, authenticated)) {
+            return false;
+        }
+        int indexWord = readInt(work, authenticated - 4);
+        int encryptedEnd = authenticated - 4;
+        if (indexWord < 0) {
+            rtcpIn.applyKeystream(8, encryptedEnd - 8, readInt(work, 4), indexWord & 0x7FFFFFFF);
+            packet.setBytes(start + 8, work, 8, encryptedEnd - 8);
+        }
+        packet.writerIndex(start + encryptedEnd);
+        return true;
+    }
+
+    private static int rtpHeaderLength(byte[] packet, int length) {
+        int headerLength = 12 + 4 * (packet[0] & 0x0F);
+        if ((packet[0] & 0x10) != 0 && headerLength + 4 <= length) {
+            int extensionWords = ((packet[headerLength + 2] & 0xFF) << 8) | (packet[headerLength + 3] & 0xFF);
+            headerLength += 4 + 4 * extensionWords;
+        }
+        if (headerLength > length) {
+            throw new IllegalArgumentException("Malformed RTP header");
+        }
+        return headerLength;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16)
+                | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 按 RFC 3711 4.3.1（密钥派生率为 0）由主密钥派生会话密钥、认证密钥或盐。
+     * Derives a session key, authentication key or salt from the master key per RFC 3711 4.3.1, with a key
+     * derivation rate of zero.
+     */
+    static byte[] deriveSessionKey(byte[] inlineKey, int label, int length) {
+        if (inlineKey == null || inlineKey.length != INLINE_KEY_LENGTH) {
+            throw new IllegalArgumentException("SRTP inline key must be " + INLINE_KEY_LENGTH + " bytes");
+        }
+        try {
+            Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+            aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(inlineKey, 0, MASTER_KEY_LENGTH, "AES"));
+            int blocks = (length + 15) / 16;
+            byte[] counters = new byte[blocks * 16];
+            for (int block = 0; block < blocks; block++) {
+                int offset = block * 16;
+                System.arraycopy(inlineKey, MASTER_KEY_LENGTH, counters, offset, MASTER_SALT_LENGTH);
+                counters[offset + 7] ^= (byte) label;
+                counters[offset + 14] = (byte) (block >>> 8);
+                counters[offset + 15] = (byte) block;
+            }
+            byte[] keystream = aes.doFinal(counters);
+            byte[] key = new byte[length];
+            System.arraycopy(keystream, 0, key, 0, length);
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES is not available", e);
+        }
+    }
+
+    /**
+     * 单个方向、单个协议（RTP 或 RTCP）的会话密钥与复用的加密状态。
+     * Session keys and reused crypto state for one direction of one protocol, RTP or RTCP.
+     */
+    private static final class Engine {
+        private final Cipher aes;
+        private final byte[] salt;
+        private final byte[] innerPad = new byte[64];
+        private final byte[] outerPad = new byte[64];
+        private final MessageDigest inner;
+        private final MessageDigest outer;
+        private final byte[] work = new byte[MAX_PACKET_SIZE + RTCP_OVERHEAD + 4];
+        private final byte[] counters = new byte[MAX_PACKET_SIZE + RTCP_OVERHEAD + 16];
+        private final byte[] keystream = new byte[MAX_PACKET_SIZE + RTCP_OVERHEAD + 16];
+        private final byte[] digest = new byte[AUTH_KEY_LENGTH];
+
+        Engine(byte[] inlineKey, int encryptionLabel, int authLabel, int saltLabel) {
+            byte[] sessionKey = deriveSessionKey(inlineKey, encryptionLabel, MASTER_KEY_LENGTH);
+            byte[] authKey = deriveSessionKey(inlineKey, authLabel, AUTH_KEY_LENGTH);
+            this.salt = deriveSessionKey(inlineKey, saltLabel, MASTER_SALT_LENGTH);
+            for (int i = 0; i < 64; i++) {
+                byte keyByte = i < authKey.length ? authKey[i] : 0;
+                innerPad[i] = (byte) (keyByte ^ 0x36);
+                outerPad[i] = (byte) (keyByte ^ 0x5C);
+            }
+            try {
+                this.aes = Cipher.getInstance("AES/ECB/NoPadding");
+                this.aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sessionKey, "AES"));
+                this.inner = MessageDigest.getInstance("SHA-1");
+                this.outer = MessageDigest.getInstance("SHA-1");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES or SHA-1 is not available", e);
+            }
+        }
+
+        byte[] load(ByteBuf packet, int start, int length) {
+            if (length > MAX_PACKET_SIZE + RTCP_OVERHEAD) {
+                throw new IllegalArgumentException("Packet too large for SRTP: " + length);
+            }
+            packet.getBytes(start, work, 0, length);
+            return work;
+        }
+
+        /**
+         * AES-CM：IV = (盐 << 16) XOR (SSRC << 64) XOR (索引 << 16)，块计数位于低 16 位。
+         * AES-CM: IV = (salt << 16) XOR (SSRC << 64) XOR (index << 16), with the block counter in the low 16 bits.
+         */
+        void applyKeystream(int offset, int length, int ssrc, long index) {
+            if (length <= 0) {
+                return;
+            }
+            int blocks = (length + 15) / 16;
+            for (int block = 0; block < blocks; block++) {
+                int base = block * 16;
+                System.arraycopy(salt, 0, counters, base, MASTER_SALT_LENGTH);
+                counters[base + 4] ^= (byte) (ssrc >>> 24);
+                counters[base + 5] ^= (byte) (ssrc >>> 16);
+                counters[base + 6] ^= (byte) (ssrc >>> 8);
+                counters[base + 7] ^= (byte) ssrc;
+                counters[base + 8] ^= (byte) (index >>> 40);
+                counters[base + 9] ^= (byte) (index >>> 32);
+                counters[base + 10] ^= (byte) (index >>> 24);
+                counters[base + 11] ^= (byte) (index >>> 16);
+                counters[base + 12] ^= (byte) (index >>> 8);
+                counters[base + 13] ^= (byte) index;
+                counters[base + 14] = (byte) (block >>> 8);
+                counters[base + 15] = (byte) block;
+            }
+            try {
+                aes.update(counters, 0, blocks * 16, keystream, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES keystream generation failed", e);
+            }
+            for (int i = 0; i < length; i++) {
+                work[offset + i] ^= keystream[i];
+            }
+        }
+
+        /**
+         * 对 work[0, length) 计算 HMAC-SHA1，结果写入 digest（前 10 字节即为标签）。
+         * Computes HMAC-SHA1 over work[0, length) into digest; its first 10 bytes are the tag.
+         */
+        void authenticate(int length) {
+            try {
+                inner.update(innerPad);
+                inner.update(work, 0, length);
+                inner.digest(digest, 0, digest.length);
+                outer.update(outerPad);
+                outer.update(digest, 0, digest.length);
+                outer.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException("HMAC-SHA1 failed", e);
+            }
+        }
+
+        /**
+         * 常量时间比较标签，避免按时间差猜测。
+         * Compares the tag in constant time so timing does not leak how much of it matched.
+         */
+        boolean tagMatches(byte[] packet, int tagOffset) {
+            int diff = 0;
+            for (int i = 0; i < AUTH_TAG_LENGTH; i++) {
+                diff |= packet[tagOffset + i] ^ digest[i];
+            }
+            return diff == 0;
+        }
+    }
+}
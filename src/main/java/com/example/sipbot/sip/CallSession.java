@@ -1,21 +1,41 @@
 package com.example.sipbot.sip;
 
+import com.example.sipbot.cdr.CallDetailRecord;
+import com.example.sipbot.media.Playlist;
+import com.example.sipbot.media.RtpStream;
+import com.example.sipbot.media.RtpStreamStats;
+
 import javax.sip.Dialog;
 import javax.sip.ServerTransaction;
+import javax.sip.message.Response;
+import java.util.concurrent.ScheduledFuture;
 
 public class CallSession {
+
     private final String callId;
     private final Dialog dialog;
-    private final String remoteHost;
-    private final int remoteRtpPort;
+    private final SdpDetails remoteMedia;
+    private final int localRtpPort;
     private final ServerTransaction serverTransaction;
+    private final CallDetailRecord cdr;
+    private final Playlist playlist;
+    private final RtpStreamStats mediaStats = new RtpStreamStats();
+    private volatile RtpStream media;
+    private volatile Response pendingAnswer;
+    private volatile ScheduledFuture<?> answerTimer;
+    private boolean acknowledged;
+    private boolean hangupOnAck;
 
-    public CallSession(String callId, Dialog dialog, String remoteHost, int remoteRtpPort, ServerTransaction serverTransaction) {
+    public CallSession(String callId, Dialog dialog, SdpDetails remoteMedia, int localRtpPort,
+                       ServerTransaction serverTransaction, CallDetailRecord cdr, Playlist playlist) {
         this.callId = callId;
         this.dialog = dialog;
-        this.remoteHost = remoteHost;
-        this.remoteRtpPort = remoteRtpPort;
+        this.remoteMedia = remoteMedia;
+        this.localRtpPort = localRtpPort;
         this.serverTransaction = serverTransaction;
+        this.cdr = cdr;
+        this.playlist = playlist;
+        cdr.setMediaStats(mediaStats);
     }
 
     public String getCallId() {
@@ -27,14 +47,130 @@ public class CallSession {
     }
 
     public String getRemoteHost() {
-        return remoteHost;
+        return remoteMedia.getRemoteHost();
     }
 
     public int getRemoteRtpPort() {
-        return remoteRtpPort;
+        return remoteMedia.getRemotePort();
+    }
+
+    public int getRemoteRtcpPort() {
+        return remoteMedia.getRemoteRtcpPort();
+    }
+
+    /**
+     * 本呼叫从端口池租用的本地 RTP 端口（RTCP 为其 +1）。
+     * Local RTP port leased from the port pool for this call; RTCP uses the next port.
+     */
+    public int getLocalRtpPort() {
+        return localRtpPort;
+    }
+
+    public SdpDetails getRemoteMedia() {
+        return remoteMedia;
     }
 
+    /**
+     * 该呼叫的 RTP 收发计数与 RTCP 质量统计（丢包、抖动、往返时延）。
+     * RTP counters and RTCP quality statistics (loss, jitter, round-trip time) for this call.
+     */
+    public RtpStreamStats getMediaStats() {
+        return mediaStats;
+    }
+
+    /**
+     * 来电的 INVITE 服务端事务；外呼为 null。
+     * Server transaction of an inbound INVITE; null for outbound calls.
+     */
     public ServerTransaction getServerTransaction() {
         return serverTransaction;
     }
+
+    public CallDetailRecord getCdr() {
+        return cdr;
+    }
+
+    /**
+     * 该呼叫的播放列表，播放过程中可继续追加条目。
+     * This call's playlist; entries may still be appended while it plays.
+     */
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    public void setMedia(RtpStream media) {
+        this.media = media;
+    }
+
+    /**
+     * 开始播放已预先准备好的媒体流，并记录启动时刻用于测量首包时延。
+     * Starts the media stream prepared earlier and records when it was started, for first-packet latency.
+     */
+    public void startMedia() {
+        RtpStream current = media;
+        if (current == null || current.isStarted()) {
+            return;
+        }
+        cdr.markMediaRequested();
+        current.start();
+    }
+
+    /**
+     * 停止该呼叫的 RTP 播放（如仍在进行）。
+     * Stops RTP playback for this call if it is still running.
+     */
+    public void stopMedia() {
+        RtpStream current = media;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * 早期媒体期间已准备好、尚未发出的 200 OK；其余情况为 null。
+     * The 200 OK prepared but not yet sent while early media plays; null otherwise.
+     */
+    Response getPendingAnswer() {
+        return pendingAnswer;
+    }
+
+    void setPendingAnswer(Response pendingAnswer) {
+        this.pendingAnswer = pendingAnswer;
+    }
+
+    void setAnswerTimer(ScheduledFuture<?> answerTimer) {
+        this.answerTimer = answerTimer;
+    }
+
+    void cancelAnswerTimer() {
+        ScheduledFuture<?> timer = answerTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * 记录 200 OK 已被确认（入呼叫收到 ACK，外呼已发出 ACK）；返回 true 表示有挂断在等待这次确认。
+     * Records that the 200 OK has been acknowledged (ACK received for inbound calls, sent for outbound ones);
+     * returns true when a hangup was waiting for it.
+     */
+    synchronized boolean acknowledge() {
+        acknowledged = true;
+        boolean pending = hangupOnAck;
+        hangupOnAck = false;
+        return pending;
+    }
+
+    /**
+     * 200 OK 尚未被确认时把挂断推迟到 ACK 到达（RFC 3261 第 15 节：BYE 不得先于 ACK）；已确认时返回 false，应立即挂断。
+     * Defers the hangup until the ACK arrives while the 200 OK is still unacknowledged (RFC 3261 section 15: no BYE
+     * before the ACK); returns false once acknowledged, meaning the caller should hang up now.
+     */
+    synchronized boolean deferHangupUntilAcknowledged() {
+        if (acknowledged) {
+            return false;
+        }
+        hangupOnAck = true;
+        return true;
+    }
 }
@@ -0,0 +1,94 @@
+package com.example.sipbot.sip;
+
+import javax.sip.header.WWWAuthenticateHeader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SIP 摘要认证（RFC 2617，MD5）。服务器提供 qop=auth 时按 nonce 递增 nc 并为每个请求生成新的 cnonce，
+ * 同一 nonce 因而可以安全地用于多个请求；未提供 qop 时不做预先认证，每个请求各自接受质询。
+ * SIP digest authentication (RFC 2617, MD5). When the server offers qop=auth, nc counts up per nonce and every
+ * request gets a fresh cnonce, so one nonce can safely serve several requests. Without qop there is no
+ * pre-authentication and every request takes its own challenge.
+ */
+final class DigestAuth {
+
+    static final String QOP_AUTH = "auth";
+
+    private final WWWAuthenticateHeader challenge;
+    private final boolean qopAuth;
+    private final AtomicInteger nonceCount = new AtomicInteger();
+
+    DigestAuth(WWWAuthenticateHeader challenge) {
+        this.challenge = challenge;
+        this.qopAuth = offersAuth(challenge.getQop());
+    }
+
+    /**
+     * 服务器的质询：401 的 WWW-Authenticate 或 407 的 Proxy-Authenticate。
+     * The server's challenge: WWW-Authenticate from a 401 or Proxy-Authenticate from a 407.
+     */
+    WWWAuthenticateHeader getChallenge() {
+        return challenge;
+    }
+
+    /**
+     * 服务器是否提供了 qop=auth；只有这样该 nonce 才能复用于后续请求，重放可由 nc 识别。
+     * Whether the server offered qop=auth; only then may the nonce serve later requests, since a replay shows in
+     * its nc.
+     */
+    boolean isQopAuth() {
+        return qopAuth;
+    }
+
+    /**
+     * 为下一个请求分配 nc（从 1 开始）。
+     * Allocates the nc for the next request, starting at 1.
+     */
+    int nextNonceCount() {
+        return nonceCount.incrementAndGet();
+    }
+
+    /**
+     * 计算 response 参数；qop 为 null 时按 RFC 2069 兼容方式计算，忽略 nc 与 cnonce。
+     * Computes the response parameter; with a null qop it uses the RFC 2069 compatible form and ignores nc and
+     * cnonce.
+     */
+    static String response(String username, String realm, String password, String method, String uri, String nonce,
+                           String qop, int nonceCount, String cnonce) throws NoSuchAlgorithmException {
+        String ha1 = md5(username + ":" + realm + ":" + password);
+        String ha2 = md5(method + ":" + uri);
+        if (qop == null) {
+            return md5(ha1 + ":" + nonce + ":" + ha2);
+        }
+        return md5(ha1 + ":" + nonce + ":" + formatNonceCount(nonceCount) + ":" + cnonce + ":" + qop + ":" + ha2);
+    }
+
+    static String formatNonceCount(int nonceCount) {
+        return String.format("%08x", nonceCount);
+    }
+
+    static boolean offersAuth(String qopOptions) {
+        if (qopOptions == null) {
+            return false;
+        }
+        for (String option : qopOptions.split(",")) {
+            if (QOP_AUTH.equalsIgnoreCase(option.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String md5(String value) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] digest = md.digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.cdr.CallDetailRecord;
+
+import javax.sip.ClientTransaction;
+import javax.sip.message.Request;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一通外呼在 200 OK 之前的状态：当前 INVITE 事务、认证重试次数、振铃超时，以及呼叫结束时完成的 future。
+ * State of one outbound call up to its 200 OK: the current INVITE transaction, authentication retries, the ring
+ * timeout, and the future completed with the CDR once the call ends.
+ */
+class OutboundCall {
+
+    private final String target;
+    private final int localRtpPort;
+    private final byte[] localKey;
+    private final CallDetailRecord cdr;
+    private final CompletableFuture<CallDetailRecord> result = new CompletableFuture<>();
+
+    private volatile Request request;
+    private volatile ClientTransaction transaction;
+    private volatile int authAttempts;
+    private volatile boolean cancelled;
+    private volatile boolean answered;
+    private volatile CallSession session;
+    private volatile ScheduledFuture<?> ringTimeout;
+
+    OutboundCall(String target, int localRtpPort, byte[] localKey, CallDetailRecord cdr) {
+        this.target = target;
+        this.localRtpPort = localRtpPort;
+        this.localKey = localKey;
+        this.cdr = cdr;
+    }
+
+    String getTarget() {
+        return target;
+    }
+
+    int getLocalRtpPort() {
+        return localRtpPort;
+    }
+
+    /**
+     * INVITE 中提议的本端 SRTP inline 密钥；以明文 RTP 提议时为 null。
+     * Local SRTP inline key offered in the INVITE, or null when plain RTP was offered.
+     */
+    byte[] getLocalKey() {
+        return localKey;
+    }
+
+    CallDetailRecord getCdr() {
+        return cdr;
+    }
+
+    CompletableFuture<CallDetailRecord> getResult() {
+        return result;
+    }
+
+    Request getRequest() {
+        return request;
+    }
+
+    ClientTransaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * 记录刚发出的 INVITE（首次或带认证信息的重试）及其事务。
+     * Records the INVITE just sent, first attempt or authenticated retry, and its transaction.
+     */
+    void sent(Request request, ClientTransaction transaction) {
+        this.request = request;
+        this.transaction = transaction;
+    }
+
+    int getAuthAttempts() {
+        return authAttempts;
+    }
+
+    void incrementAuthAttempts() {
+        authAttempts++;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void markCancelled() {
+        cancelled = true;
+    }
+
+    boolean isAnswered() {
+        return answered;
+    }
+
+    void markAnswered() {
+        answered = true;
+        cancelRingTimeout();
+    }
+
+    /**
+     * 收到带 SDP 的 18x 或 200 后建立的会话；此前为 null。
+     * Session created from the SDP of a 18x or the 200; null until then.
+     */
+    CallSession getSession() {
+        return session;
+    }
+
+    void setSession(CallSession session) {
+        this.session = session;
+    }
+
+    void setRingTimeout(ScheduledFuture<?> ringTimeout) {
+        this.ringTimeout = ringTimeout;
+    }
+
+    void cancelRingTimeout() {
+        ScheduledFuture<?> timeout = ringTimeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+}
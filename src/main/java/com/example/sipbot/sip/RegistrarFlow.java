@@ -0,0 +1,196 @@
+package com.example.sipbot.sip;
+
+import gov.nist.javax.sip.ListeningPointExt;
+import gov.nist.javax.sip.SipStackImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 到注册服务器的持久连接（RFC 5626 flow）。REGISTER、外呼 INVITE 及对端经该连接发来请求的响应都复用同一条
+ * TCP 连接；本类按间隔发送 CRLF 保活，并经同一连接发送 OPTIONS，要求在 pong 超时内收到任意响应。连接断开或响应超时
+ * （半开连接）后关闭连接、按指数退避（带抖动）重连，新连接确认可用后回调重新注册，使注册服务器把新连接绑定为本机的路由。
+ * Persistent connection to the registrar (an RFC 5626 flow). REGISTER, outbound INVITEs and responses to requests
+ * the peer sends over it all share one TCP connection. This class sends CRLF keepalives on an interval and follows
+ * each with an OPTIONS over the same connection that must draw some response within the pong timeout. Once the
+ * connection drops or the response is missed, meaning the connection is half-open, it closes the connection,
+ * reconnects with jittered exponential backoff and re-registers once the new connection is confirmed, so the
+ * registrar binds it as the route to this node.
+ */
+class RegistrarFlow {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistrarFlow.class);
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+
+    private final SipStackImpl sipStack;
+    private final ListeningPointExt listeningPoint;
+    private final String host;
+    private final int port;
+    private final long keepaliveMillis;
+    private final long pongTimeoutMillis;
+    private final long maxBackoffMillis;
+    private final Supplier<CompletableFuture<?>> pingRegistrar;
+    private final Runnable onReconnected;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sip-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 仅在 synchronized 方法或保活线程中访问。
+    // Only touched from synchronized methods or the keepalive thread.
+    private int failures;
+    private ScheduledFuture<?> next;
+    private boolean stopped;
+
+    /**
+     * pingRegistrar 经本连接发送一个请求，收到任意响应时完成其 future；pongTimeoutMillis 为 0 时不发送、不检查。
+     * pingRegistrar sends a request over this connection and completes its future on any response. A
+     * pongTimeoutMillis of 0 skips that check.
+     */
+    RegistrarFlow(SipStackImpl sipStack, ListeningPointExt listeningPoint, String host, int port, long keepaliveMillis,
+                  long pongTimeoutMillis, long maxBackoffMillis, Supplier<CompletableFuture<?>> pingRegistrar,
+                  Runnable onReconnected) {
+        this.sipStack = sipStack;
+        this.listeningPoint = listeningPoint;
+        this.host = host;
+        this.port = port;
+        this.keepaliveMillis = keepaliveMillis;
+        this.pongTimeoutMillis = pongTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.pingRegistrar = pingRegistrar;
+        this.onReconnected = onReconnected;
+    }
+
+    void start() {
+        schedule(keepaliveMillis);
+        log.info("Keeping {} flow to registrar {}:{} alive every {} ms", listeningPoint.getTransport(), host, port, keepaliveMillis);
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (next != null) {
+            next.cancel(false);
+        }
+        scheduler.shutdownNow();
+    }
+
+    boolean isFlowTo(String address, int remotePort) {
+        return port == remotePort && host.equals(address);
+    }
+
+    /**
+     * SIP 栈报告该连接的 IO 异常时调用：立即探测，必要时重连并重新注册。
+     * Called when the SIP stack reports an IO error on this connection: probes at once, reconnecting and
+     * re-registering if needed.
+     */
+    synchronized void connectionLost() {
+        if (failures == 0) {
+            failures = 1;
+        }
+        schedule(0);
+    }
+
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        if (stopped) {
+            return;
+        }
+        if (next != null) {
+            next.cancel(false);
+        }
+        next = scheduler.schedule(this::probe, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 发送 CRLF 保活，再等待 OPTIONS 的响应；连接已断开时 NIST 栈会新建连接，因此失败后的首次确认即为重连成功。
+     * 响应超时说明连接半开（RFC 5626 4.4.1），关闭它，下一次保活会新建连接。
+     * Sends a CRLF keepalive, then waits for the response to an OPTIONS. The NIST stack opens a new connection when
+     * the old one is gone, so the first confirmation after a failure means the flow has been re-established. A
+     * missed response means the connection is half-open (RFC 5626 section 4.4.1); it is closed so the next
+     * keepalive opens a new one.
+     */
+    private void probe() {
+        try {
+            listeningPoint.sendHeartbeat(host, port);
+            if (!awaitPong()) {
+                sipStack.closeReliableConnection(listeningPoint.getIPAddress(), listeningPoint.getPort(),
+                        listeningPoint.getTransport(), host, port);
+                long delay = recordFailure();
+                log.warn("No response from registrar {}:{} within {} ms; reconnecting in {} ms", host, port,
+                        pongTimeoutMillis, delay);
+                schedule(delay);
+                return;
+            }
+            int previousFailures;
+            synchronized (this) {
+                previousFailures = failures;
+                failures = 0;
+            }
+            if (previousFailures > 0) {
+                log.info("Flow to registrar {}:{} re-established after {} attempt(s); re-registering", host, port, previousFailures);
+                onReconnected.run();
+            }
+            schedule(keepaliveMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            long delay = recordFailure();
+            log.warn("Flow to registrar {}:{} is down ({}); reconnecting in {} ms", host, port, e.getMessage(), delay);
+            schedule(delay);
+        }
+    }
+
+    /**
+     * 经本连接 ping 注册服务器并等待响应，超时返回 false；请求无法发出时抛出 IOException。
+     * Pings the registrar over this connection and waits for the response, returning false on timeout; throws
+     * IOException when the request cannot be sent.
+     */
+    private boolean awaitPong() throws IOException, InterruptedException {
+        if (pongTimeoutMillis <= 0) {
+            return true;
+        }
+        CompletableFuture<?> pong = pingRegistrar.get();
+        try {
+            pong.get(pongTimeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            pong.cancel(false);
+            return false;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private synchronized long recordFailure() {
+        failures++;
+        return jitteredBackoffMillis();
+    }
+
+    private long jitteredBackoffMillis() {
+        long backoff = backoffMillis(failures, maxBackoffMillis);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * 第 failures 次连续失败后的退避上界：从 500 ms 起逐次翻倍，不超过 maxBackoffMillis；实际等待在其一半到全值之间抖动。
+     * Backoff ceiling after the given number of consecutive failures: 500 ms doubling each time, capped at
+     * maxBackoffMillis. The actual wait is jittered between half and all of it.
+     */
+    static long backoffMillis(int failures, long maxBackoffMillis) {
+        return Math.min(maxBackoffMillis, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+    }
+}
@@ -3,10 +3,21 @@ package com.example.sipbot.sip;
 public class SdpDetails {
     private final String remoteHost;
     private final int remotePort;
+    private final int remoteRtcpPort;
+    private final int comfortNoisePayloadType;
+    private final boolean secure;
+    private final int cryptoTag;
+    private final byte[] cryptoKey;
 
-    public SdpDetails(String remoteHost, int remotePort) {
+    public SdpDetails(String remoteHost, int remotePort, int remoteRtcpPort, int comfortNoisePayloadType,
+                      boolean secure, int cryptoTag, byte[] cryptoKey) {
         this.remoteHost = remoteHost;
         this.remotePort = remotePort;
+        this.remoteRtcpPort = remoteRtcpPort;
+        this.comfortNoisePayloadType = comfortNoisePayloadType;
+        this.secure = secure;
+        this.cryptoTag = cryptoTag;
+        this.cryptoKey = cryptoKey;
     }
 
     public String getRemoteHost() {
@@ -16,4 +27,45 @@ public class SdpDetails {
     public int getRemotePort() {
         return remotePort;
     }
+
+    /**
+     * 对端 RTCP 端口：SDP 中的 a=rtcp，缺省为 RTP 端口 + 1（RFC 3605）。
+     * Peer RTCP port: a=rtcp from the SDP, otherwise RTP port + 1 (RFC 3605).
+     */
+    public int getRemoteRtcpPort() {
+        return remoteRtcpPort;
+    }
+
+    /**
+     * 对端提供的舒适噪声（CN/8000）负载类型，未提供时为 -1。
+     * Comfort noise (CN/8000) payload type offered by the peer, or -1 if none.
+     */
+    public int getComfortNoisePayloadType() {
+        return comfortNoisePayloadType;
+    }
+
+    /**
+     * 媒体行的传输协议为 RTP/SAVP（要求 SRTP）。
+     * Whether the media line's transport is RTP/SAVP, i.e. SRTP is required.
+     */
+    public boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * 所选 a=crypto 行的标签，应答时原样带回；无可用 crypto 行时为 -1。
+     * Tag of the chosen a=crypto line, echoed in the answer; -1 when no usable crypto line was offered.
+     */
+    public int getCryptoTag() {
+        return cryptoTag;
+    }
+
+    /**
+     * 对端 AES_CM_128_HMAC_SHA1_80 inline 密钥（主密钥 + 主盐，30 字节），无可用 crypto 行时为 null。
+     * The peer's AES_CM_128_HMAC_SHA1_80 inline key (master key plus salt, 30 bytes), or null when no usable crypto
+     * line was offered.
+     */
+    public byte[] getCryptoKey() {
+        return cryptoKey;
+    }
 }
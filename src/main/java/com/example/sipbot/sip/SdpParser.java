@@ -1,16 +1,33 @@
 package com.example.sipbot.sip;
 
+import com.example.sipbot.media.SrtpTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public final class SdpParser {
 
     private static final Logger log = LoggerFactory.getLogger(SdpParser.class);
+    private static final int STATIC_CN_PAYLOAD_TYPE = 13;
+    private static final String SECURE_PROFILE = "RTP/SAVP";
+    private static final String CRYPTO_PREFIX = "a=crypto:";
+    private static final String INLINE_PREFIX = "inline:";
+    private static final int MAX_PORT = 65535;
+    private static final int MAX_PAYLOAD_TYPE = 127;
+
+    /**
+     * 外呼提议中 crypto 行的标签；应答必须带回同一标签。
+     * Tag of the crypto line in outbound offers; the answer has to carry the same tag back.
+     */
+    public static final int OFFER_CRYPTO_TAG = 1;
 
     private SdpParser() {
     }
@@ -21,6 +38,12 @@ public final class SdpParser {
         }
         String connection = null;
         Integer port = null;
+        Integer rtcpPort = null;
+        List<String> formats = Collections.emptyList();
+        String cnPayloadType = null;
+        boolean secure = false;
+        int cryptoTag = -1;
+        byte[] cryptoKey = null;
         for (String line : sdp.split("\r?\n")) {
             if (line.startsWith("c=")) {
                 String[] parts = line.split(" ");
@@ -31,7 +54,37 @@ public final class SdpParser {
             if (line.startsWith("m=audio")) {
                 String[] parts = line.split(" ");
                 if (parts.length >= 2) {
-                    port = Integer.parseInt(parts[1]);
+                    int audioPort = parseNumber(parts[1], MAX_PORT);
+                    port = audioPort >= 0 ? audioPort : null;
+                }
+                if (parts.length >= 3) {
+                    secure = SECURE_PROFILE.equals(parts[2]);
+                }
+                if (parts.length >= 4) {
+                    formats = Arrays.asList(parts).subList(3, parts.length);
+                }
+            }
+            if (line.startsWith("a=rtcp:")) {
+                String[] parts = line.substring("a=rtcp:".length()).split(" ");
+                int parsed = parseNumber(parts[0], MAX_PORT);
+                if (parsed >= 0) {
+                    rtcpPort = parsed;
+                } else {
+                    log.debug("Ignoring malformed rtcp attribute: {}", line);
+                }
+            }
+            if (line.startsWith("a=rtpmap:") && line.toUpperCase().contains(" CN/8000")) {
+                cnPayloadType = line.substring("a=rtpmap:".length(), line.indexOf(' ')).trim();
+            }
+            if (cryptoKey == null && line.startsWith(CRYPTO_PREFIX)) {
+                byte[] key = parseCryptoKey(line);
+                int tag = key != null
+                        ? parseNumber(line.substring(CRYPTO_PREFIX.length(), line.indexOf(' ')), Integer.MAX_VALUE) : -1;
+                if (tag >= 0) {
+                    cryptoKey = key;
+                    cryptoTag = tag;
+                } else if (key != null) {
+                    log.debug("Ignoring crypto line with malformed tag: {}", line);
                 }
             }
         }
@@ -41,24 +94,114 @@ public final class SdpParser {
         }
         try {
             String host = InetAddress.getByName(connection).getHostAddress();
-            return Optional.of(new SdpDetails(host, port));
+            int comfortNoise = -1;
+            if (cnPayloadType != null && formats.contains(cnPayloadType)) {
+                comfortNoise = parseNumber(cnPayloadType, MAX_PAYLOAD_TYPE);
+            } else if (cnPayloadType == null && formats.contains(String.valueOf(STATIC_CN_PAYLOAD_TYPE))) {
+                comfortNoise = STATIC_CN_PAYLOAD_TYPE;
+            }
+            return Optional.of(new SdpDetails(host, port, rtcpPort != null ? rtcpPort : port + 1, comfortNoise,
+                    secure, cryptoTag, cryptoKey));
         } catch (UnknownHostException e) {
             log.warn("Unable to resolve SDP host {}", connection, e);
             return Optional.empty();
         }
     }
 
-    public static String buildAnswer(String localAddress, int rtpPort) {
-        String[] lines = new String[]{
+    /**
+     * 解析 SDP 中的数值字段；不是 0 到 max 之间的整数时返回 -1，调用方据此跳过该行或拒绝整个描述，不让异常中断
+     * INVITE 的处理。
+     * Parses a numeric SDP field, returning -1 unless it is an integer from 0 to max, so callers skip the line or
+     * reject the whole description instead of an exception cutting INVITE handling short.
+     */
+    private static int parseNumber(String value, int max) {
+        try {
+            int number = Integer.parseInt(value.trim());
+            return number <= max ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析一行 a=crypto，仅接受 AES_CM_128_HMAC_SHA1_80 且不带 MKI 的 inline 密钥；其余情况返回 null。
+     * Parses one a=crypto line, accepting only an AES_CM_128_HMAC_SHA1_80 inline key without an MKI; returns null
+     * otherwise.
+     */
+    private static byte[] parseCryptoKey(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 3 || !SrtpTransformer.SUITE.equals(parts[1]) || !parts[2].startsWith(INLINE_PREFIX)) {
+            return null;
+        }
+        String[] keyParams = parts[2].substring(INLINE_PREFIX.length()).split("\\|");
+        // 第三个字段为 MKI（形如 1:4），本机不支持逐包 MKI。
+        // A third field is an MKI (like 1:4), which per-packet processing here does not support.
+        if (keyParams.length > 2 || (keyParams.length == 2 && keyParams[1].contains(":"))) {
+            log.debug("Ignoring crypto line with MKI: {}", line);
+            return null;
+        }
+        try {
+            byte[] key = Base64.getDecoder().decode(keyParams[0]);
+            return key.length == SrtpTransformer.INLINE_KEY_LENGTH ? key : null;
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid SRTP inline key in {}", line);
+            return null;
+        }
+    }
+
+    /**
+     * 生成外呼 INVITE 的 PCMU 提议；offerComfortNoise 为 true 时同时提供静态 CN（13）。
+     * Builds a PCMU offer for an outbound INVITE, also offering static CN (13) when offerComfortNoise is true.
+     */
+    public static String buildOffer(String localAddress, int rtpPort, boolean offerComfortNoise) {
+        return buildOffer(localAddress, rtpPort, offerComfortNoise, null);
+    }
+
+    /**
+     * 同上；localKey 不为 null 时以 RTP/SAVP 提议 SRTP，并在 crypto 行（标签 OFFER_CRYPTO_TAG）中携带本端密钥。
+     * As above; when localKey is not null, SRTP is offered as RTP/SAVP with the local key in a crypto line (tag
+     * OFFER_CRYPTO_TAG).
+     */
+    public static String buildOffer(String localAddress, int rtpPort, boolean offerComfortNoise, byte[] localKey) {
+        return buildAnswer(localAddress, rtpPort, offerComfortNoise ? STATIC_CN_PAYLOAD_TYPE : -1, OFFER_CRYPTO_TAG,
+                localKey);
+    }
+
+    /**
+     * 生成 PCMU 应答；comfortNoisePayloadType 不为 -1 时一并接受对端提供的 CN。
+     * Builds a PCMU answer, also accepting the peer's CN payload type unless comfortNoisePayloadType is -1.
+     */
+    public static String buildAnswer(String localAddress, int rtpPort, int comfortNoisePayloadType) {
+        return buildAnswer(localAddress, rtpPort, comfortNoisePayloadType, -1, null);
+    }
+
+    /**
+     * 同上；localKey 不为 null 时以 RTP/SAVP 应答，crypto 行带回对端的标签与本端密钥。
+     * As above; when localKey is not null the answer uses RTP/SAVP, with a crypto line carrying the peer's tag and
+     * the local key.
+     */
+    public static String buildAnswer(String localAddress, int rtpPort, int comfortNoisePayloadType, int cryptoTag,
+                                     byte[] localKey) {
+        String profile = localKey != null ? SECURE_PROFILE : "RTP/AVP";
+        List<String> lines = new ArrayList<>(Arrays.asList(
                 "v=0",
                 "o=sipbot 0 0 IN IP4 " + localAddress,
                 "s=sipbot",
                 "c=IN IP4 " + localAddress,
-                "t=0 0",
-                "m=audio " + rtpPort + " RTP/AVP 0",
-                "a=rtpmap:0 PCMU/8000",
-                "a=ptime:20"
-        };
-        return String.join("\r\n", Arrays.asList(lines));
+                "t=0 0"));
+        if (comfortNoisePayloadType >= 0) {
+            lines.add("m=audio " + rtpPort + " " + profile + " 0 " + comfortNoisePayloadType);
+            lines.add("a=rtpmap:0 PCMU/8000");
+            lines.add("a=rtpmap:" + comfortNoisePayloadType + " CN/8000");
+        } else {
+            lines.add("m=audio " + rtpPort + " " + profile + " 0");
+            lines.add("a=rtpmap:0 PCMU/8000");
+        }
+        if (localKey != null) {
+            lines.add(CRYPTO_PREFIX + cryptoTag + " " + SrtpTransformer.SUITE + " " + INLINE_PREFIX
+                    + Base64.getEncoder().encodeToString(localKey));
+        }
+        lines.add("a=ptime:20");
+        return String.join("\r\n", lines);
     }
 }
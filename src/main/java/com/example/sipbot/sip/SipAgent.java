@@ -1,9 +1,17 @@
 package com.example.sipbot.sip;
 
+import com.example.sipbot.cdr.CallDetailRecord;
+import com.example.sipbot.cdr.CdrJournal;
+import com.example.sipbot.cdr.HangupCause;
+import com.example.sipbot.cdr.HangupParty;
 import com.example.sipbot.config.SipProperties;
-import com.example.sipbot.media.AudioFileLoader;
-import com.example.sipbot.media.PcmTtsGenerator;
+import com.example.sipbot.media.Playlist;
+import com.example.sipbot.media.PromptResolver;
 import com.example.sipbot.media.RtpAudioStreamer;
+import com.example.sipbot.media.RtpPortPool;
+import com.example.sipbot.media.SrtpTransformer;
+import gov.nist.javax.sip.ListeningPointExt;
+import gov.nist.javax.sip.SipStackImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -18,25 +26,45 @@ import javax.sip.header.*;
 import javax.sip.message.MessageFactory;
 import javax.sip.message.Request;
 import javax.sip.message.Response;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Component
 public class SipAgent implements SipListener {
 
     private static final Logger log = LoggerFactory.getLogger(SipAgent.class);
+    private static final String SRTP_DISABLED = "disabled";
+    private static final String SRTP_REQUIRED = "required";
+    private static final long DRAIN_POLL_MILLIS = 100;
+    private static final long DRAIN_REPORT_MILLIS = 5000;
+    private static final long DEREGISTER_TIMEOUT_MILLIS = 2000;
+    private static final long TEARDOWN_TIMEOUT_MILLIS = 2000;
+    private static final long TEARDOWN_POLL_MILLIS = 10;
 
     private final SipProperties properties;
-    private final AudioFileLoader audioFileLoader;
-    private final PcmTtsGenerator ttsGenerator;
+    private final PromptResolver promptResolver;
     private final RtpAudioStreamer rtpAudioStreamer;
+    private final CdrJournal cdrJournal;
+    private final RtpPortPool rtpPortPool;
 
     private SipFactory sipFactory;
     private SipStack sipStack;
@@ -46,18 +74,48 @@ public class SipAgent implements SipListener {
     private MessageFactory messageFactory;
 
     private ClientTransaction lastRegister;
+    private RegistrarFlow registrarFlow;
+    private String instanceId;
     private long cseq = 1;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // 待执行的注册刷新；任何时刻至多一个，发送任何 REGISTER 前取消。受 this 保护。
+    // The pending registration refresh: at most one at a time, cancelled before any REGISTER goes out. Guarded by
+    // this.
+    private ScheduledFuture<?> registerRefresh;
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
     private final ConcurrentHashMap<String, CallSession> callSessions = new ConcurrentHashMap<>();
+    // 尚未结束的外呼，按 Call-ID 索引；话单完成时移除。
+    // Outbound calls that have not ended yet, keyed by Call-ID; removed once their CDR completes.
+    private final ConcurrentHashMap<String, OutboundCall> outboundCalls = new ConcurrentHashMap<>();
+    // 正在播放早期媒体、尚未应答的来电，按 Call-ID 索引。
+    // Inbound calls playing early media and not answered yet, keyed by Call-ID.
+    private final ConcurrentHashMap<String, CallSession> earlyCalls = new ConcurrentHashMap<>();
+    // 最近一次带 qop=auth 的 INVITE 质询，后续外呼以递增的 nc 直接携带凭据，省去每通呼叫的 401/407 往返。
+    // Last INVITE challenge offering qop=auth; later outbound calls carry credentials up front with a rising nc,
+    // saving a 401/407 round trip each.
+    private volatile DigestAuth inviteChallenge;
+    private volatile boolean draining;
+    // 排空时发出的注销的结果：收到 2xx 为 true，被拒绝、超时或发送失败为 false。
+    // Outcome of the de-REGISTER sent when draining: true on a 2xx, false once it is rejected, times out or cannot
+    // be sent.
+    private volatile CompletableFuture<Boolean> deregistration;
+    // 经注册服务器连接发出、尚未收到响应的 OPTIONS，按 Call-ID 索引；收到任意响应即完成。
+    // OPTIONS pings sent over the registrar flow and not answered yet, keyed by Call-ID; any response completes them.
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> registrarPings = new ConcurrentHashMap<>();
 
     public SipAgent(SipProperties properties,
-                    AudioFileLoader audioFileLoader,
-                    PcmTtsGenerator ttsGenerator,
-                    RtpAudioStreamer rtpAudioStreamer) {
+                    PromptResolver promptResolver,
+                    RtpAudioStreamer rtpAudioStreamer,
+                    CdrJournal cdrJournal,
+                    RtpPortPool rtpPortPool) {
         this.properties = properties;
-        this.audioFileLoader = audioFileLoader;
-        this.ttsGenerator = ttsGenerator;
+        this.promptResolver = promptResolver;
         this.rtpAudioStreamer = rtpAudioStreamer;
+        this.cdrJournal = cdrJournal;
+        this.rtpPortPool = rtpPortPool;
+        // 每通外呼都有振铃超时任务，取消后立即移出队列，避免高呼叫率下堆积。
+        // Every outbound call schedules a ring timeout; cancelled ones leave the queue at once so they do not pile up
+        // at high call rates.
+        scheduler.setRemoveOnCancelPolicy(true);
     }
 
     @PostConstruct
@@ -68,26 +126,125 @@ public class SipAgent implements SipListener {
         Properties stackProps = new Properties();
         stackProps.setProperty("javax.sip.STACK_NAME", "sipbot-stack");
         stackProps.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
-        stackProps.setProperty("gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY", "gov.nist.javax.sip.stack.NioMessageProcessorFactory");
+        // 使用栈默认的 TCP 处理器，连接按目的地址缓存，无论由本方还是对端发起，建立后都保留复用。
+        // The stack's default TCP processor caches connections by destination; once set up they are kept and
+        // reused, whichever side opened them.
+        stackProps.setProperty("gov.nist.javax.sip.CACHE_CLIENT_CONNECTIONS", "true");
+        stackProps.setProperty("gov.nist.javax.sip.CACHE_SERVER_CONNECTIONS", "true");
+        String registrarAddress = InetAddress.getByName(registrarHost()).getHostAddress();
+        if (isConnectionOriented()) {
+            // 所有请求（包括对话内请求）都经注册服务器发送，共用同一条持久连接，每通呼叫不再新建连接。
+            // Every request, in-dialog ones included, goes via the registrar over the one persistent connection, so
+            // calls set up no connections of their own.
+            stackProps.setProperty("javax.sip.OUTBOUND_PROXY", registrarAddress + ":" + registrarPort() + "/" + properties.getTransport());
+        }
 
         sipStack = sipFactory.createSipStack(stackProps);
         addressFactory = sipFactory.createAddressFactory();
         headerFactory = sipFactory.createHeaderFactory();
         messageFactory = sipFactory.createMessageFactory();
+        instanceId = UUID.nameUUIDFromBytes((properties.getUsername() + "@" + properties.getLocalAddress() + ":"
+                + properties.getPort()).getBytes(StandardCharsets.UTF_8)).toString();
 
-        ListeningPoint listeningPoint = sipStack.createListeningPoint(properties.getLocalAddress(), properties.getPort(), properties.getTransport());
-        sipProvider = sipStack.createSipProvider(listeningPoint);
+        Set<String> transports = listenTransports();
+        for (String transport : transports) {
+            ListeningPoint listeningPoint = sipStack.createListeningPoint(properties.getLocalAddress(), properties.getPort(), transport);
+            if (sipProvider == null) {
+                sipProvider = sipStack.createSipProvider(listeningPoint);
+            } else {
+                sipProvider.addListeningPoint(listeningPoint);
+            }
+        }
         sipProvider.addSipListener(this);
+        log.info("SIP stack started on {}:{} ({})", properties.getLocalAddress(), properties.getPort(), String.join(", ", transports));
 
-        log.info("SIP stack started on {}:{} ({})", properties.getLocalAddress(), properties.getPort(), properties.getTransport());
+        if (isConnectionOriented()) {
+            registrarFlow = new RegistrarFlow((SipStackImpl) sipStack,
+                    (ListeningPointExt) sipProvider.getListeningPoint(properties.getTransport()), registrarAddress,
+                    registrarPort(), TimeUnit.SECONDS.toMillis(properties.getKeepaliveIntervalSeconds()),
+                    TimeUnit.SECONDS.toMillis(properties.getKeepalivePongTimeoutSeconds()),
+                    TimeUnit.SECONDS.toMillis(properties.getReconnectMaxBackoffSeconds()), this::pingRegistrar,
+                    this::refreshRegistration);
+            registrarFlow.start();
+        }
         sendRegister(null);
     }
 
+    /**
+     * 需要监听的传输协议：配置的 listen-transports 加上发往注册服务器所用的 transport。
+     * Transports to listen on: the configured listen-transports plus the transport used towards the registrar.
+     */
+    private Set<String> listenTransports() {
+        Set<String> transports = new LinkedHashSet<>();
+        transports.add(properties.getTransport().toLowerCase(Locale.ROOT));
+        for (String transport : properties.getListenTransports()) {
+            transports.add(transport.toLowerCase(Locale.ROOT));
+        }
+        return transports;
+    }
+
+    private boolean isConnectionOriented() {
+        return !ListeningPoint.UDP.equalsIgnoreCase(properties.getTransport());
+    }
+
+    /**
+     * 注册服务器主机名，即 domain 去掉可选的 :端口。
+     * Registrar host: the domain without its optional :port.
+     */
+    private String registrarHost() {
+        String domain = properties.getDomain();
+        int colon = domain.indexOf(':');
+        return colon > 0 ? domain.substring(0, colon) : domain;
+    }
+
+    private int registrarPort() {
+        String domain = properties.getDomain();
+        int colon = domain.indexOf(':');
+        return colon > 0 ? Integer.parseInt(domain.substring(colon + 1)) : 5060;
+    }
+
+    /**
+     * 先排空再停止：拒绝新呼叫并注销，等待进行中的呼叫在 drain-timeout-seconds 内自然结束，超时后挂断剩余呼叫：
+     * 早期媒体中的来电回 503，已确认的对话发 BYE，未应答的外呼发 CANCEL。协议栈在注销得到最终响应、这些 BYE/CANCEL
+     * 得到响应（或各自短暂超时）后才停止。
+     * Drains before stopping: new calls are refused and the registration withdrawn, calls in progress get up to
+     * drain-timeout-seconds to end on their own, and whatever is left after that is hung up: inbound calls in early
+     * media get a 503, confirmed dialogs a BYE and unanswered outbound calls a CANCEL. The stack only stops once the
+     * de-REGISTER and those BYEs and CANCELs have been answered, or after a short timeout for each.
+     */
     @PreDestroy
     public void shutdown() {
+        startDrain();
+        awaitDrained(TimeUnit.SECONDS.toMillis(properties.getDrainTimeoutSeconds()));
+        awaitDeregistration();
         scheduler.shutdownNow();
+        if (registrarFlow != null) {
+            registrarFlow.stop();
+        }
+        for (String callId : earlyCalls.keySet()) {
+            rejectEarly(callId, Response.TEMPORARILY_UNAVAILABLE, HangupCause.SYSTEM_SHUTDOWN, HangupParty.SYSTEM);
+        }
+        List<ClientTransaction> teardown = new ArrayList<>();
+        for (CallSession session : callSessions.values()) {
+            ClientTransaction bye = hangUp(session, HangupCause.SYSTEM_SHUTDOWN, HangupParty.SYSTEM);
+            if (bye != null) {
+                teardown.add(bye);
+            }
+        }
+        for (OutboundCall call : outboundCalls.values()) {
+            if (!call.isAnswered()) {
+                try {
+                    teardown.add(sendCancel(call));
+                } catch (Exception e) {
+                    log.debug("Unable to CANCEL outbound call {} on shutdown", call.getCdr().getCallId(), e);
+                }
+            }
+            failOutbound(call, 0, HangupCause.SYSTEM_SHUTDOWN, HangupParty.SYSTEM);
+        }
+        awaitTeardown(teardown);
         if (sipStack != null) {
             try {
+                sipProvider.removeSipListener(this);
                 sipStack.deleteSipProvider(sipProvider);
                 sipStack.stop();
             } catch (Exception e) {
@@ -96,13 +253,186 @@ public class SipAgent implements SipListener {
         }
     }
 
-    private void sendRegister(AuthorizationHeader authHeader) throws ParseException, InvalidArgumentException, SipException {
+    /**
+     * 进入排空模式（可重复调用）：新的 INVITE 以 503 + Retry-After 拒绝，外呼与外呼任务暂停，并以 Expires: 0 注销，
+     * 使注册服务器把新呼叫路由到其他节点。进行中的呼叫不受影响。
+     * Enters drain mode; calling it again is harmless. New INVITEs are refused with 503 and Retry-After, outbound
+     * calls and campaigns pause, and the registration is withdrawn with Expires: 0 so the registrar routes new calls
+     * to other nodes. Calls in progress carry on untouched.
+     */
+    public synchronized void startDrain() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        log.info("Draining: refusing new calls, {} call(s) in progress", getActiveCallCount());
+        cancelRegisterRefresh();
+        if (sipProvider != null) {
+            deregister();
+        }
+    }
+
+    /**
+     * 退出排空模式并重新注册，用于取消一次未完成的重启。
+     * Leaves drain mode and registers again, for backing out of a restart that did not happen.
+     */
+    public synchronized void resume() {
+        if (!draining) {
+            return;
+        }
+        draining = false;
+        log.info("Drain cancelled; accepting calls again");
+        if (sipProvider != null) {
+            refreshRegistration();
+        }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 等待停止时发出的 BYE/CANCEL 得到响应，合计最多 TEARDOWN_TIMEOUT_MILLIS，使其在协议栈停止前送达（UDP 上可重传）。
+     * Waits, up to TEARDOWN_TIMEOUT_MILLIS in all, for the BYEs and CANCELs sent on shutdown to be answered, so they
+     * reach the peer (with retransmissions over UDP) before the stack stops.
+     */
+    private void awaitTeardown(List<ClientTransaction> transactions) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TEARDOWN_TIMEOUT_MILLIS);
+        for (ClientTransaction transaction : transactions) {
+            while (isPending(transaction)) {
+                if (System.nanoTime() - deadline >= 0) {
+                    log.warn("Stopping with BYE/CANCEL still unanswered after {} ms", TEARDOWN_TIMEOUT_MILLIS);
+                    return;
+                }
+                try {
+                    Thread.sleep(TEARDOWN_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isPending(ClientTransaction transaction) {
+        TransactionState state = transaction.getState();
+        return state == null || state == TransactionState.CALLING || state == TransactionState.TRYING
+                || state == TransactionState.PROCEEDING;
+    }
+
+    private void deregister() {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        deregistration = result;
+        try {
+            sendRegister(null);
+        } catch (Exception e) {
+            log.error("Failed to deregister", e);
+            result.complete(false);
+        }
+    }
+
+    /**
+     * 停止 SIP 栈前等待注销的最终响应，最多 DEREGISTER_TIMEOUT_MILLIS。注销常先收到 401/407，认证后的重试要等该响应到达
+     * 才会发出；空闲节点排空瞬间完成，不等待就会在重试发出前停止协议栈，注册服务器仍保留绑定直至过期。
+     * Waits up to DEREGISTER_TIMEOUT_MILLIS for the final response to the de-REGISTER before the SIP stack stops.
+     * The de-REGISTER is usually challenged with 401/407 and the authenticated retry only goes out once that
+     * response arrives. An idle node drains at once, so without waiting the stack would stop before the retry and
+     * the registrar would keep the binding until it expired.
+     */
+    private void awaitDeregistration() {
+        CompletableFuture<Boolean> result = deregistration;
+        if (result == null) {
+            return;
+        }
+        try {
+            if (result.get(DEREGISTER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.info("Deregistration from {} confirmed", properties.getDomain());
+            } else {
+                log.warn("Deregistration from {} failed; the registrar keeps the binding until it expires", properties.getDomain());
+            }
+        } catch (TimeoutException e) {
+            log.warn("No final response to de-REGISTER from {} within {} ms; stopping anyway", properties.getDomain(),
+                    DEREGISTER_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for deregistration from {}", properties.getDomain());
+        } catch (ExecutionException e) {
+            log.warn("Deregistration from {} failed", properties.getDomain(), e.getCause());
+        }
+    }
+
+    private void completeDeregistration(boolean deregistered) {
+        CompletableFuture<Boolean> result = deregistration;
+        if (result != null) {
+            result.complete(deregistered);
+        }
+    }
+
+    /**
+     * 进行中的呼叫数：已应答的呼叫、仍在播放早期媒体的来电，以及尚未应答的外呼。外呼的会话放入 callSessions 后即由其计数，
+     * outboundCalls 中的条目不再重复计入；在此之前（包括正在处理应答时）仍按外呼计数，计数不会短暂归零。
+     * Calls in progress: answered calls, inbound calls still in early media, and outbound calls still waiting for
+     * an answer. Once an outbound call's session is in callSessions it is counted there and not again through its
+     * outboundCalls entry; until then, including while its answer is being handled, it counts as outbound, so the
+     * total never dips in between.
+     */
+    public int getActiveCallCount() {
+        int ringing = 0;
+        for (OutboundCall call : outboundCalls.values()) {
+            CallSession session = call.getSession();
+            if (session == null || !callSessions.containsKey(session.getDialog().getDialogId())) {
+                ringing++;
+            }
+        }
+        return callSessions.size() + earlyCalls.size() + ringing;
+    }
+
+    /**
+     * 等待进行中的呼叫全部结束，最多 timeoutMillis，期间定期记录进度；全部结束时返回 true，排空被取消时返回 false。
+     * Waits up to timeoutMillis for the calls in progress to end, logging progress periodically. Returns true once
+     * they have all ended, or false if the drain is cancelled meanwhile.
+     */
+    public boolean awaitDrained(long timeoutMillis) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long nextReport = start;
+        int remaining;
+        while ((remaining = getActiveCallCount()) > 0) {
+            if (!draining) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                log.warn("Drain deadline of {} ms reached with {} call(s) still in progress", timeoutMillis, remaining);
+                return false;
+            }
+            if (now - nextReport >= 0) {
+                log.info("Draining: {} call(s) in progress, {} s left", remaining, TimeUnit.NANOSECONDS.toSeconds(deadline - now));
+                nextReport = now + TimeUnit.MILLISECONDS.toNanos(DRAIN_REPORT_MILLIS);
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Drain interrupted with {} call(s) still in progress", remaining);
+                return false;
+            }
+        }
+        log.info("Drained in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    private synchronized void sendRegister(AuthorizationHeader authHeader) throws ParseException, InvalidArgumentException, SipException {
+        // 新的 REGISTER 取代待执行的刷新，重连、排空或认证重试都不会额外叠加一条刷新链。
+        // A new REGISTER supersedes the pending refresh, so reconnects, draining and auth retries never add another
+        // refresh chain.
+        cancelRegisterRefresh();
         SipURI requestUri = addressFactory.createSipURI(properties.getUsername(), properties.getDomain());
         Address fromAddress = addressFactory.createAddress(requestUri);
         FromHeader fromHeader = headerFactory.createFromHeader(fromAddress, Long.toHexString(System.nanoTime()));
         ToHeader toHeader = headerFactory.createToHeader(fromAddress, null);
 
-        ViaHeader viaHeader = headerFactory.createViaHeader(properties.getLocalAddress(), properties.getPort(), properties.getTransport(), null);
+        ViaHeader viaHeader = createViaHeader();
         MaxForwardsHeader maxForwards = headerFactory.createMaxForwardsHeader(70);
         CallIdHeader callId = sipProvider.getNewCallId();
         CSeqHeader cSeqHeader = headerFactory.createCSeqHeader(cseq++, Request.REGISTER);
@@ -113,11 +443,22 @@ public class SipAgent implements SipListener {
         SipURI contactUri = addressFactory.createSipURI(properties.getUsername(), properties.getLocalAddress());
         contactUri.setPort(properties.getPort());
         contactUri.setTransportParam(properties.getTransport());
+        if (isConnectionOriented()) {
+            // RFC 5626：声明 outbound 支持并标识本实例与连接，注册服务器据此经本连接送达来电。
+            // RFC 5626: advertise outbound support and identify this instance and flow, so the registrar delivers
+            // incoming requests over this connection.
+            contactUri.setParameter("ob", null);
+        }
         Address contactAddress = addressFactory.createAddress(contactUri);
         ContactHeader contactHeader = headerFactory.createContactHeader(contactAddress);
+        if (isConnectionOriented()) {
+            contactHeader.setParameter("reg-id", "1");
+            contactHeader.setParameter("+sip.instance", "\"<urn:uuid:" + instanceId + ">\"");
+            register.addHeader(headerFactory.createSupportedHeader("outbound"));
+        }
         register.addHeader(contactHeader);
 
-        ExpiresHeader expires = headerFactory.createExpiresHeader(properties.getRegisterTtlSeconds());
+        ExpiresHeader expires = headerFactory.createExpiresHeader(draining ? 0 : properties.getRegisterTtlSeconds());
         register.addHeader(expires);
 
         if (authHeader != null) {
@@ -126,7 +467,7 @@ public class SipAgent implements SipListener {
 
         lastRegister = sipProvider.getNewClientTransaction(register);
         lastRegister.sendRequest();
-        log.info("Sent REGISTER to {} as {}", properties.getDomain(), properties.getUsername());
+        log.info("Sent {} to {} as {}", draining ? "de-REGISTER" : "REGISTER", properties.getDomain(), properties.getUsername());
     }
 
     @Override
@@ -152,6 +493,9 @@ public class SipAgent implements SipListener {
     }
 
     private void handleInvite(RequestEvent event) {
+        long setupTimeMillis = System.currentTimeMillis();
+        CallSession session = null;
+        int localPort = -1;
         try {
             Request request = event.getRequest();
             ServerTransaction serverTransaction = event.getServerTransaction();
@@ -159,38 +503,142 @@ public class SipAgent implements SipListener {
                 serverTransaction = sipProvider.getNewServerTransaction(request);
             }
             String callId = ((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId();
+            CallDetailRecord cdr = new CallDetailRecord(callId, "inbound", setupTimeMillis);
+            if (draining) {
+                reject(serverTransaction, cdr, Response.SERVICE_UNAVAILABLE, HangupCause.NORMAL_TEMPORARY_FAILURE,
+                        headerFactory.createRetryAfterHeader(properties.getDrainRetryAfterSeconds()));
+                log.info("Draining; refusing call {}", callId);
+                return;
+            }
             byte[] rawContent = request.getRawContent();
             if (rawContent == null) {
-                Response response = messageFactory.createResponse(Response.NOT_ACCEPTABLE_HERE, request);
-                serverTransaction.sendResponse(response);
+                reject(serverTransaction, cdr, Response.NOT_ACCEPTABLE_HERE, HangupCause.INCOMPATIBLE_DESTINATION);
                 log.warn("INVITE without SDP; rejecting call {}", callId);
                 return;
             }
             String sdp = new String(rawContent, StandardCharsets.UTF_8);
-            Response ringing = messageFactory.createResponse(Response.RINGING, request);
-            serverTransaction.sendResponse(ringing);
-
             SdpDetails details = SdpParser.parse(sdp).orElse(null);
             if (details == null) {
-                Response response = messageFactory.createResponse(Response.NOT_ACCEPTABLE_HERE, request);
-                serverTransaction.sendResponse(response);
+                reject(serverTransaction, cdr, Response.NOT_ACCEPTABLE_HERE, HangupCause.INCOMPATIBLE_DESTINATION);
                 log.warn("Unable to parse SDP; rejecting call {}", callId);
                 return;
             }
+            if (!isSrtpAcceptable(details, details.isSecure())) {
+                reject(serverTransaction, cdr, Response.NOT_ACCEPTABLE_HERE, HangupCause.INCOMPATIBLE_DESTINATION);
+                log.warn("{} offer does not meet SRTP policy '{}'; rejecting call {}",
+                        details.isSecure() ? "RTP/SAVP" : "RTP/AVP", properties.getSrtp(), callId);
+                return;
+            }
+            localPort = rtpPortPool.lease();
+            if (localPort < 0) {
+                reject(serverTransaction, cdr, Response.SERVICE_UNAVAILABLE, HangupCause.NORMAL_TEMPORARY_FAILURE);
+                log.warn("No free RTP port; rejecting call {}", callId);
+                return;
+            }
 
-            String sdpAnswer = SdpParser.buildAnswer(properties.getLocalAddress(), properties.getRtpPort());
-            Response ok = messageFactory.createResponse(Response.OK, request);
-            ok.addHeader(headerFactory.createContactHeader(addressFactory.createAddress("sip:" + properties.getUsername() + "@" + properties.getLocalAddress() + ":" + properties.getPort())));
-            ok.setContent(sdpAnswer, headerFactory.createContentTypeHeader("application", "sdp"));
-            serverTransaction.sendResponse(ok);
+            int comfortNoise = properties.isComfortNoise() ? details.getComfortNoisePayloadType() : -1;
+            // 每通 SRTP 呼叫生成新的本端主密钥，经应答中的 a=crypto 交给对端。
+            // Every SRTP call gets a fresh local master key, handed to the peer in the answer's a=crypto line.
+            byte[] localKey = details.isSecure() ? SrtpTransformer.generateInlineKey() : null;
+            String sdpAnswer = SdpParser.buildAnswer(properties.getLocalAddress(), localPort, comfortNoise,
+                    details.getCryptoTag(), localKey);
+            cdr.setRemoteMedia(details.getRemoteHost(), details.getRemotePort());
 
+            // 在应答前就绑定端口并预组首帧，ACK（或 183）到达时只需开始发送。
+            // Sockets are bound and the first frame built before answering, so ACK (or 183) only has to start sending.
             Dialog dialog = serverTransaction.getDialog();
-            CallSession session = new CallSession(callId, dialog, details.getRemoteHost(), details.getRemotePort(), serverTransaction);
-            callSessions.put(dialog.getDialogId(), session);
-            log.info("Accepted INVITE for call {} from {}:{}", callId, details.getRemoteHost(), details.getRemotePort());
+            session = new CallSession(callId, dialog, details, localPort, serverTransaction, cdr, buildPlaylist());
+            prepareMedia(session, comfortNoise, localKey != null ? new SrtpTransformer(localKey, details.getCryptoKey()) : null);
+
+            Response ok = messageFactory.createResponse(Response.OK, request);
+            ok.addHeader(createContactHeader());
+            ok.setContent(sdpAnswer, headerFactory.createContentTypeHeader("application", "sdp"));
+            if (properties.isEarlyMedia()) {
+                Response progress = messageFactory.createResponse(Response.SESSION_PROGRESS, request);
+                progress.addHeader(createContactHeader());
+                progress.setContent(sdpAnswer, headerFactory.createContentTypeHeader("application", "sdp"));
+                serverTransaction.sendResponse(progress);
+                cdr.setEarlyMedia(true);
+                long answerDelay = properties.getEarlyMediaMillis();
+                if (answerDelay > 0) {
+                    // 先登记再开始播放，提示音即使立即播完也能找到待发的 200 OK。
+                    // Registered before playback starts, so even prompts that end at once find the pending 200 OK.
+                    session.setPendingAnswer(ok);
+                    earlyCalls.put(callId, session);
+                    session.startMedia();
+                    session.setAnswerTimer(scheduler.schedule(() -> answerEarly(callId), answerDelay,
+                            TimeUnit.MILLISECONDS));
+                    log.debug("Early media for call {} from {}:{}; answering in {} ms", callId, details.getRemoteHost(),
+                            details.getRemotePort(), answerDelay);
+                    return;
+                }
+                session.startMedia();
+            } else {
+                Response ringing = messageFactory.createResponse(Response.RINGING, request);
+                serverTransaction.sendResponse(ringing);
+            }
+            answer(session, ok);
+            log.debug("Accepted INVITE for call {} from {}:{}", callId, details.getRemoteHost(), details.getRemotePort());
         } catch (Exception e) {
             log.error("Error handling INVITE", e);
+            if (session != null) {
+                session.stopMedia();
+            } else {
+                rtpPortPool.release(localPort);
+            }
+        }
+    }
+
+    private void answer(CallSession session, Response ok) throws SipException, InvalidArgumentException {
+        session.getServerTransaction().sendResponse(ok);
+        session.getCdr().setSipStatus(Response.OK);
+        session.getCdr().markAnswered();
+        callSessions.put(session.getDialog().getDialogId(), session);
+    }
+
+    /**
+     * 结束早期媒体并发送准备好的 200 OK：由应答定时器调用，或在提示音提前播完且播完后不挂断时调用；呼叫已被应答、取消或结束时不做任何事。
+     * Ends early media by sending the prepared 200 OK. Called by the answer timer, or when the prompts finish
+     * first and the call is not hung up after playback; does nothing once the call has been answered, cancelled or
+     * ended.
+     */
+    private void answerEarly(String callId) {
+        CallSession session = earlyCalls.remove(callId);
+        if (session == null) {
+            return;
+        }
+        session.cancelAnswerTimer();
+        try {
+            answer(session, session.getPendingAnswer());
+            log.debug("Answered call {} after early media", callId);
+        } catch (Exception e) {
+            log.warn("Failed to answer call {} after early media", callId, e);
+            journal(session.getCdr(), HangupCause.NORMAL_TEMPORARY_FAILURE, HangupParty.LOCAL);
+            session.stopMedia();
+        }
+    }
+
+    /**
+     * 以最终响应结束仍在早期媒体阶段的来电；呼叫已被应答或结束时返回 false。
+     * Ends an inbound call still in early media with a final response; returns false if it was already answered or
+     * ended.
+     */
+    private boolean rejectEarly(String callId, int status, HangupCause cause, HangupParty party) {
+        CallSession session = earlyCalls.remove(callId);
+        if (session == null) {
+            return false;
         }
+        session.cancelAnswerTimer();
+        session.stopMedia();
+        ServerTransaction serverTransaction = session.getServerTransaction();
+        try {
+            serverTransaction.sendResponse(messageFactory.createResponse(status, serverTransaction.getRequest()));
+            session.getCdr().setSipStatus(status);
+        } catch (Exception e) {
+            log.debug("Failed to send {} for call {}", status, callId, e);
+        }
+        journal(session.getCdr(), cause, party);
+        return true;
     }
 
     private void handleAck(RequestEvent event) {
@@ -202,14 +650,440 @@ public class SipAgent implements SipListener {
         if (session == null) {
             return;
         }
-        log.info("ACK received for call {}. Starting media.", session.getCallId());
-        byte[] audio = audioFileLoader.loadMuLawSamples(new java.io.File(properties.getAudioFile()).toPath());
-        if (audio.length == 0) {
-            audio = ttsGenerator.synthesizeMuLaw(properties.getTtsText());
+        log.debug("ACK received for call {}. Starting media.", session.getCallId());
+        session.startMedia();
+        if (session.acknowledge()) {
+            log.debug("Prompts for call {} ended before its ACK; hanging up now", session.getCallId());
+            sendBye(session);
+        }
+    }
+
+    private void reject(ServerTransaction serverTransaction, CallDetailRecord cdr, int status, HangupCause cause,
+                        Header... headers) throws ParseException, SipException, InvalidArgumentException {
+        Response response = messageFactory.createResponse(status, serverTransaction.getRequest());
+        for (Header header : headers) {
+            response.addHeader(header);
+        }
+        serverTransaction.sendResponse(response);
+        cdr.setSipStatus(status);
+        journal(cdr, cause, HangupParty.LOCAL);
+    }
+
+    /**
+     * 按 srtp 策略判断对端的媒体描述能否接受：secure 为本端要求（入呼叫为对端提议本身，外呼为本端提议）。
+     * RTP/SAVP 还必须带可用的 crypto 行。
+     * Checks the peer's media description against the srtp policy. secure is what this side requires: the offer
+     * itself for inbound calls, our own offer for outbound ones. RTP/SAVP also needs a usable crypto line.
+     */
+    private boolean isSrtpAcceptable(SdpDetails details, boolean secure) {
+        if (details.isSecure() != secure) {
+            return false;
+        }
+        if (secure) {
+            return !SRTP_DISABLED.equalsIgnoreCase(properties.getSrtp()) && details.getCryptoKey() != null;
+        }
+        return !SRTP_REQUIRED.equalsIgnoreCase(properties.getSrtp());
+    }
+
+    /**
+     * 准备呼叫的 RTP 流；流关闭时归还本地端口，并按配置在播放结束后挂断。早期媒体阶段就播完时以 480 结束早期对话，
+     * 不再应答一通马上要挂断的呼叫；已发 200 OK 但 ACK 未到时，BYE 推迟到 ACK 到达后发送。srtp 为 null 时发送明文 RTP。
+     * Prepares the call's RTP stream. Closing the stream returns the local port to the pool and, if configured,
+     * hangs up once playback has finished. Prompts that end during early media close the early dialog with a 480
+     * rather than answering a call only to hang it up; once the 200 OK is out but not yet acknowledged, the BYE waits
+     * for the ACK. A null srtp sends plain RTP.
+     */
+    private void prepareMedia(CallSession session, int comfortNoise, SrtpTransformer srtp) {
+        int localPort = session.getLocalRtpPort();
+        Runnable onFinished = () -> {
+            rtpPortPool.release(localPort);
+            if (!properties.isHangupAfterPlayback()) {
+                answerEarly(session.getCallId());
+                return;
+            }
+            if (rejectEarly(session.getCallId(), Response.TEMPORARILY_UNAVAILABLE, HangupCause.NORMAL_CLEARING,
+                    HangupParty.LOCAL)) {
+                log.debug("Prompts for call {} ended during early media; not answering", session.getCallId());
+                return;
+            }
+            if (session.deferHangupUntilAcknowledged()) {
+                return;
+            }
+            sendBye(session);
+        };
+        session.setMedia(rtpAudioStreamer.prepare(session.getRemoteHost(), session.getRemoteRtpPort(), session.getRemoteRtcpPort(),
+                localPort, session.getPlaylist(), comfortNoise, session.getMediaStats(), onFinished, srtp));
+        session.getCdr().setSrtp(srtp != null);
+    }
+
+    private ViaHeader createViaHeader() throws ParseException, InvalidArgumentException {
+        return headerFactory.createViaHeader(properties.getLocalAddress(), properties.getPort(), properties.getTransport(), null);
+    }
+
+    private ContactHeader createContactHeader() throws ParseException {
+        String transport = isConnectionOriented() ? ";transport=" + properties.getTransport() : "";
+        return headerFactory.createContactHeader(addressFactory.createAddress(
+                "sip:" + properties.getUsername() + "@" + properties.getLocalAddress() + ":" + properties.getPort() + transport));
+    }
+
+    /**
+     * 经到注册服务器的连接发送 OPTIONS，收到任意响应（包括 401/407）时完成返回的 future，说明连接在应用层仍可达；
+     * 调用方放弃等待时取消该 future。
+     * Sends an OPTIONS over the connection to the registrar. The returned future completes on any response,
+     * 401/407 included, showing the connection still reaches the registrar; callers cancel it when they stop
+     * waiting.
+     */
+    private CompletableFuture<?> pingRegistrar() {
+        CompletableFuture<Void> answered = new CompletableFuture<>();
+        try {
+            SipURI requestUri = (SipURI) addressFactory.createURI("sip:" + properties.getDomain());
+            Address fromAddress = addressFactory.createAddress(addressFactory.createSipURI(properties.getUsername(), properties.getDomain()));
+            FromHeader fromHeader = headerFactory.createFromHeader(fromAddress, Long.toHexString(System.nanoTime()));
+            ToHeader toHeader = headerFactory.createToHeader(addressFactory.createAddress(requestUri), null);
+            CallIdHeader callId = sipProvider.getNewCallId();
+            CSeqHeader cSeqHeader = headerFactory.createCSeqHeader(1L, Request.OPTIONS);
+            Request options = messageFactory.createRequest(requestUri, Request.OPTIONS, callId, cSeqHeader, fromHeader, toHeader,
+                    Collections.singletonList(createViaHeader()), headerFactory.createMaxForwardsHeader(70));
+
+            registrarPings.put(callId.getCallId(), answered);
+            answered.whenComplete((ignored, e) -> registrarPings.remove(callId.getCallId()));
+            sipProvider.getNewClientTransaction(options).sendRequest();
+        } catch (Exception e) {
+            answered.completeExceptionally(e);
+        }
+        return answered;
+    }
+
+    private void refreshRegistration() {
+        try {
+            sendRegister(null);
+        } catch (Exception e) {
+            log.error("Failed to refresh registration", e);
+        }
+    }
+
+    private synchronized void scheduleRegisterRefresh(long delaySeconds) {
+        cancelRegisterRefresh();
+        if (draining) {
+            // 排空开始前发出的 REGISTER 迟到的 2xx：已经注销，不再刷新；resume 时重新注册并恢复刷新。
+            // A late 2xx for a REGISTER sent before draining began: the binding has been withdrawn, so no refresh.
+            // resume registers again and brings the refresh back.
+            return;
+        }
+        registerRefresh = scheduler.schedule(this::refreshRegistration, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void cancelRegisterRefresh() {
+        if (registerRefresh != null) {
+            registerRefresh.cancel(false);
+            registerRefresh = null;
+        }
+    }
+
+    /**
+     * 按配置生成呼叫的播放列表并立即开始预取首条；未配置列表时沿用 audio-file，文件缺失、无法解码或为空则用 tts-text。
+     * Builds the call's playlist from configuration and starts prefetching the first entry right away. Without a
+     * configured playlist, audio-file is played, or tts-text when that file is missing, unreadable or empty.
+     */
+    private Playlist buildPlaylist() {
+        Playlist playlist = new Playlist(promptResolver);
+        if (!properties.getPlaylist().isEmpty()) {
+            properties.getPlaylist().forEach(playlist::add);
+        } else {
+            playlist.add(PromptResolver.FILE_PREFIX + properties.getAudioFile(),
+                    PromptResolver.TTS_PREFIX + properties.getTtsText());
+        }
+        return playlist;
+    }
+
+    /**
+     * 按 Call-ID 查找进行中的呼叫，例如向其播放列表追加提示音。
+     * Looks up an active call by Call-ID, e.g. to append prompts to its playlist.
+     */
+    public Optional<CallSession> findCall(String callId) {
+        return callSessions.values().stream().filter(s -> s.getCallId().equals(callId)).findFirst();
+    }
+
+    /**
+     * 向 target（sip: URI，或注册域内的用户名）发起外呼，经同一个 SipProvider 发送 INVITE，应答后沿用来电的播放流程。
+     * 返回的 future 在呼叫结束、话单完成时完成；被拒绝、无应答等失败同样以话单完成（挂机原因由 SIP 响应码映射），
+     * 只有排空中或 INVITE 无法发出时才异常完成。本方法不阻塞，可在调度线程上直接调用。
+     * Places an outbound call to target, a sip: URI or a user in the registrar's domain. The INVITE goes out through
+     * the same SipProvider and, once answered, the call uses the inbound playback path. The future completes with
+     * the CDR when the call ends; rejected or unanswered attempts complete the same way, with a hangup cause mapped
+     * from the SIP status. It only completes exceptionally while draining or when the INVITE could not be sent. Never
+     * blocks, so it may be called straight from a scheduler thread.
+     */
+    public CompletableFuture<CallDetailRecord> originate(String target) {
+        if (draining) {
+            CompletableFuture<CallDetailRecord> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Draining; not calling " + target));
+            return failed;
+        }
+        int localPort = rtpPortPool.lease();
+        if (localPort < 0) {
+            CompletableFuture<CallDetailRecord> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("No free RTP port for outbound call to " + target));
+            return failed;
+        }
+        byte[] localKey = SRTP_REQUIRED.equalsIgnoreCase(properties.getSrtp()) ? SrtpTransformer.generateInlineKey() : null;
+        OutboundCall call = null;
+        try {
+            SipURI requestUri = target.startsWith("sip:")
+                    ? (SipURI) addressFactory.createURI(target)
+                    : addressFactory.createSipURI(target, properties.getDomain());
+            Address fromAddress = addressFactory.createAddress(addressFactory.createSipURI(properties.getUsername(), properties.getDomain()));
+            FromHeader fromHeader = headerFactory.createFromHeader(fromAddress, Long.toHexString(System.nanoTime()));
+            ToHeader toHeader = headerFactory.createToHeader(addressFactory.createAddress(requestUri), null);
+            CallIdHeader callId = sipProvider.getNewCallId();
+            CSeqHeader cSeqHeader = headerFactory.createCSeqHeader(1L, Request.INVITE);
+
+            Request invite = messageFactory.createRequest(requestUri, Request.INVITE, callId, cSeqHeader, fromHeader, toHeader,
+                    Collections.singletonList(createViaHeader()), headerFactory.createMaxForwardsHeader(70));
+            invite.addHeader(createContactHeader());
+            invite.setContent(SdpParser.buildOffer(properties.getLocalAddress(), localPort, properties.isComfortNoise(), localKey),
+                    headerFactory.createContentTypeHeader("application", "sdp"));
+            DigestAuth challenge = inviteChallenge;
+            if (challenge != null) {
+                invite.addHeader(buildAuthHeader(challenge, invite));
+            }
+
+            call = new OutboundCall(target, localPort, localKey,
+                    new CallDetailRecord(callId.getCallId(), "outbound", System.currentTimeMillis()));
+            outboundCalls.put(callId.getCallId(), call);
+            sendInvite(call, invite);
+            OutboundCall ringing = call;
+            call.setRingTimeout(scheduler.schedule(() -> cancelOutbound(ringing),
+                    properties.getDialerRingTimeoutSeconds(), TimeUnit.SECONDS));
+            log.debug("Sent INVITE to {} for call {}", target, callId.getCallId());
+            return call.getResult();
+        } catch (Exception e) {
+            log.warn("Failed to originate call to {}", target, e);
+            if (call != null) {
+                outboundCalls.remove(call.getCdr().getCallId());
+            }
+            rtpPortPool.release(localPort);
+            CompletableFuture<CallDetailRecord> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private void sendInvite(OutboundCall call, Request invite) throws SipException {
+        ClientTransaction transaction = sipProvider.getNewClientTransaction(invite);
+        call.sent(invite, transaction);
+        transaction.sendRequest();
+    }
+
+    private void handleInviteResponse(ResponseEvent event) {
+        Response response = event.getResponse();
+        int status = response.getStatusCode();
+        String callId = ((CallIdHeader) response.getHeader(CallIdHeader.NAME)).getCallId();
+        OutboundCall call = outboundCalls.get(callId);
+        if (call == null) {
+            // 已取消或已失败的外呼迟到的 200 OK：确认后立即挂断。
+            // A late 200 OK for an outbound call that was already cancelled or failed: acknowledge, then hang up.
+            if (status >= 200 && status < 300 && event.getDialog() != null) {
+                acknowledgeAndHangUp(event.getDialog(), response);
+            }
+            return;
+        }
+        try {
+            if (status < 200) {
+                handleOutboundProgress(call, event);
+            } else if (status < 300) {
+                handleOutboundAnswer(call, event);
+            } else if ((status == Response.UNAUTHORIZED || status == Response.PROXY_AUTHENTICATION_REQUIRED)
+                    && call.getAuthAttempts() == 0) {
+                retryWithCredentials(call, response);
+            } else {
+                log.info("Outbound call {} to {} failed with {}", callId, call.getTarget(), status);
+                if (call.isCancelled()) {
+                    failOutbound(call, status, HangupCause.NO_ANSWER, HangupParty.LOCAL);
+                } else {
+                    failOutbound(call, status, causeForStatus(status), HangupParty.REMOTE);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to handle {} for outbound call {}", status, callId, e);
+            failOutbound(call, status, HangupCause.NORMAL_TEMPORARY_FAILURE, HangupParty.SYSTEM);
+        }
+    }
+
+    /**
+     * 18x 携带 SDP 时即按其准备媒体（绑定端口、预组首帧），200 OK 到达后只需开始发送。
+     * A 18x with SDP already prepares media (sockets bound, first frame built), so the 200 OK only has to start it.
+     */
+    private void handleOutboundProgress(OutboundCall call, ResponseEvent event) {
+        Response response = event.getResponse();
+        if (call.getSession() == null && response.getRawContent() != null && event.getDialog() != null) {
+            createOutboundSession(call, event.getDialog(), response);
+        }
+    }
+
+    private void handleOutboundAnswer(OutboundCall call, ResponseEvent event) throws SipException, InvalidArgumentException {
+        if (call.isAnswered()) {
+            return;
+        }
+        call.markAnswered();
+        Response response = event.getResponse();
+        Dialog dialog = event.getDialog();
+        CSeqHeader cSeqHeader = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+        dialog.sendAck(dialog.createAck(cSeqHeader.getSeqNumber()));
+
+        CallDetailRecord cdr = call.getCdr();
+        cdr.setSipStatus(response.getStatusCode());
+        CallSession session = call.getSession();
+        if (session == null && response.getRawContent() != null) {
+            session = createOutboundSession(call, dialog, response);
+        }
+        if (session == null) {
+            log.warn("200 OK without usable SDP; hanging up outbound call {}", cdr.getCallId());
+            dialog.sendRequest(sipProvider.getNewClientTransaction(dialog.createRequest(Request.BYE)));
+            failOutbound(call, response.getStatusCode(), HangupCause.INCOMPATIBLE_DESTINATION, HangupParty.LOCAL);
+            return;
+        }
+        cdr.markAnswered();
+        session.acknowledge();
+        callSessions.put(dialog.getDialogId(), session);
+        session.startMedia();
+        log.debug("Outbound call {} to {} answered", cdr.getCallId(), call.getTarget());
+    }
+
+    private CallSession createOutboundSession(OutboundCall call, Dialog dialog, Response response) {
+        SdpDetails details = SdpParser.parse(new String(response.getRawContent(), StandardCharsets.UTF_8)).orElse(null);
+        if (details == null) {
+            return null;
+        }
+        byte[] localKey = call.getLocalKey();
+        if (!isSrtpAcceptable(details, localKey != null)) {
+            log.warn("Answer for outbound call {} does not match the offered media profile", call.getCdr().getCallId());
+            return null;
+        }
+        // RFC 4568 6.1：应答的 crypto 行必须沿用所接受的提议行的标签，本端只提议了一行。
+        // RFC 4568 section 6.1: the answer's crypto line has to reuse the tag of the offered line it accepts, and only
+        // one line was offered.
+        if (localKey != null && details.getCryptoTag() != SdpParser.OFFER_CRYPTO_TAG) {
+            log.warn("Answer for outbound call {} accepts crypto tag {}, but only tag {} was offered",
+                    call.getCdr().getCallId(), details.getCryptoTag(), SdpParser.OFFER_CRYPTO_TAG);
+            return null;
+        }
+        CallDetailRecord cdr = call.getCdr();
+        cdr.setRemoteMedia(details.getRemoteHost(), details.getRemotePort());
+        CallSession session = new CallSession(cdr.getCallId(), dialog, details, call.getLocalRtpPort(), null, cdr, buildPlaylist());
+        prepareMedia(session, properties.isComfortNoise() ? details.getComfortNoisePayloadType() : -1,
+                localKey != null ? new SrtpTransformer(localKey, details.getCryptoKey()) : null);
+        call.setSession(session);
+        return session;
+    }
+
+    /**
+     * 按 401/407 质询带凭据重发一次 INVITE（新的 Via 分支，CSeq 加一）。质询提供 qop=auth 时缓存它供后续外呼预先认证，
+     * 否则清除缓存，之后每通呼叫各自接受质询。
+     * Resends the INVITE once with credentials for a 401/407 challenge (new Via branch, CSeq + 1). A challenge
+     * offering qop=auth is cached so later outbound calls authenticate up front; otherwise the cache is cleared and
+     * each later call takes its own challenge.
+     */
+    private void retryWithCredentials(OutboundCall call, Response response) throws Exception {
+        WWWAuthenticateHeader challenge = findChallenge(response);
+        if (challenge == null) {
+            failOutbound(call, response.getStatusCode(), HangupCause.CALL_REJECTED, HangupParty.REMOTE);
+            return;
+        }
+        DigestAuth digest = new DigestAuth(challenge);
+        inviteChallenge = digest.isQopAuth() ? digest : null;
+        Request retry = (Request) call.getRequest().clone();
+        retry.removeHeader(ViaHeader.NAME);
+        retry.addHeader(createViaHeader());
+        CSeqHeader cSeqHeader = (CSeqHeader) retry.getHeader(CSeqHeader.NAME);
+        cSeqHeader.setSeqNumber(cSeqHeader.getSeqNumber() + 1);
+        retry.removeHeader(AuthorizationHeader.NAME);
+        retry.removeHeader(ProxyAuthorizationHeader.NAME);
+        retry.addHeader(buildAuthHeader(digest, retry));
+        call.incrementAuthAttempts();
+        sendInvite(call, retry);
+    }
+
+    /**
+     * 振铃超时：发送 CANCEL，对端的 487 随后结束呼叫。尚未收到临时响应、无法取消时直接在本地结束。
+     * Ring timeout: sends a CANCEL and the peer's 487 then ends the call. When it cannot be cancelled yet (no
+     * provisional response so far), the call is ended locally.
+     */
+    private void cancelOutbound(OutboundCall call) {
+        if (call.isAnswered() || !outboundCalls.containsKey(call.getCdr().getCallId())) {
+            return;
+        }
+        call.markCancelled();
+        log.info("Outbound call {} to {} not answered within {} s; cancelling", call.getCdr().getCallId(), call.getTarget(),
+                properties.getDialerRingTimeoutSeconds());
+        try {
+            sendCancel(call);
+        } catch (Exception e) {
+            log.debug("Unable to CANCEL outbound call {}; ending it locally", call.getCdr().getCallId(), e);
+            failOutbound(call, Response.REQUEST_TIMEOUT, HangupCause.NO_ANSWER, HangupParty.LOCAL);
+        }
+    }
+
+    private ClientTransaction sendCancel(OutboundCall call) throws SipException {
+        ClientTransaction transaction = sipProvider.getNewClientTransaction(call.getTransaction().createCancel());
+        transaction.sendRequest();
+        return transaction;
+    }
+
+    /**
+     * 结束未接通的外呼：写入话单、完成 future，并停止早期媒体或归还预留的端口。
+     * Ends an outbound call that never connected: journals the CDR, completes the future, and stops early media or
+     * returns the reserved port.
+     */
+    private void failOutbound(OutboundCall call, int status, HangupCause cause, HangupParty party) {
+        if (status > 0) {
+            call.getCdr().setSipStatus(status);
+        }
+        if (!journal(call.getCdr(), cause, party)) {
+            return;
+        }
+        CallSession session = call.getSession();
+        if (session != null) {
+            session.stopMedia();
+        } else {
+            rtpPortPool.release(call.getLocalRtpPort());
+        }
+    }
+
+    private void acknowledgeAndHangUp(Dialog dialog, Response response) {
+        try {
+            CSeqHeader cSeqHeader = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+            dialog.sendAck(dialog.createAck(cSeqHeader.getSeqNumber()));
+            dialog.sendRequest(sipProvider.getNewClientTransaction(dialog.createRequest(Request.BYE)));
+        } catch (Exception e) {
+            log.warn("Failed to hang up unexpected 200 OK for {}", dialog.getCallId().getCallId(), e);
+        }
+    }
+
+    private static HangupCause causeForStatus(int status) {
+        switch (status) {
+            case Response.BUSY_HERE:
+            case Response.BUSY_EVERYWHERE:
+                return HangupCause.USER_BUSY;
+            case Response.TEMPORARILY_UNAVAILABLE:
+            case Response.REQUEST_TIMEOUT:
+                return HangupCause.NO_ANSWER;
+            case Response.NOT_FOUND:
+            case Response.DOES_NOT_EXIST_ANYWHERE:
+                return HangupCause.UNALLOCATED_NUMBER;
+            case Response.UNAUTHORIZED:
+            case Response.PROXY_AUTHENTICATION_REQUIRED:
+            case Response.FORBIDDEN:
+            case Response.DECLINE:
+                return HangupCause.CALL_REJECTED;
+            case Response.NOT_ACCEPTABLE_HERE:
+            case Response.NOT_ACCEPTABLE:
+                return HangupCause.INCOMPATIBLE_DESTINATION;
+            case Response.REQUEST_TERMINATED:
+                return HangupCause.ORIGINATOR_CANCEL;
+            default:
+                return HangupCause.NORMAL_TEMPORARY_FAILURE;
         }
-        Runnable byeTask = () -> sendBye(session);
-        rtpAudioStreamer.stream(session.getRemoteHost(), session.getRemoteRtpPort(), properties.getRtpPort(), audio,
-                properties.isHangupAfterPlayback() ? byeTask : null);
     }
 
     private void handleBye(RequestEvent event) {
@@ -223,8 +1097,9 @@ public class SipAgent implements SipListener {
             log.warn("Failed to respond to BYE", e);
         } finally {
             Dialog dialog = event.getDialog();
-            if (dialog != null) {
-                callSessions.remove(dialog.getDialogId());
+            CallSession session = dialog != null ? callSessions.get(dialog.getDialogId()) : null;
+            if (session != null) {
+                endCall(session, HangupCause.NORMAL_CLEARING, HangupParty.REMOTE);
             }
         }
     }
@@ -233,7 +1108,17 @@ public class SipAgent implements SipListener {
         try {
             Response ok = messageFactory.createResponse(Response.OK, event.getRequest());
             event.getServerTransaction().sendResponse(ok);
+            // 早期媒体阶段的 CANCEL：INVITE 以 487 结束，对话从未确认，无需 BYE。
+            // CANCEL during early media: the INVITE ends with 487 and the dialog was never confirmed, so no BYE.
+            String callId = ((CallIdHeader) event.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+            if (rejectEarly(callId, Response.REQUEST_TERMINATED, HangupCause.ORIGINATOR_CANCEL, HangupParty.REMOTE)) {
+                return;
+            }
             Dialog dialog = event.getDialog();
+            CallSession session = dialog != null ? callSessions.get(dialog.getDialogId()) : null;
+            if (session != null) {
+                endCall(session, HangupCause.ORIGINATOR_CANCEL, HangupParty.REMOTE);
+            }
             if (dialog != null) {
                 Request original = dialog.createRequest(Request.BYE);
                 dialog.sendRequest(sipProvider.getNewClientTransaction(original));
@@ -244,17 +1129,56 @@ public class SipAgent implements SipListener {
     }
 
     private void sendBye(CallSession session) {
+        hangUp(session, HangupCause.NORMAL_CLEARING, HangupParty.LOCAL);
+    }
+
+    /**
+     * 对已确认的对话发送 BYE 并结束呼叫，返回 BYE 的客户端事务；未发送 BYE 时返回 null。
+     * Sends a BYE on a confirmed dialog and ends the call, returning the BYE's client transaction, or null when no
+     * BYE went out.
+     */
+    private ClientTransaction hangUp(CallSession session, HangupCause cause, HangupParty party) {
+        ClientTransaction transaction = null;
         try {
-            if (session.getDialog() != null && session.getDialog().getState() != DialogState.TERMINATED) {
+            // 只有已确认的对话才发 BYE；外呼早期对话失败时由最终响应结束。
+            // Only confirmed dialogs get a BYE; a failed outbound early dialog is ended by its final response.
+            if (session.getDialog() != null && session.getDialog().getState() == DialogState.CONFIRMED) {
                 Request bye = session.getDialog().createRequest(Request.BYE);
-                ClientTransaction transaction = sipProvider.getNewClientTransaction(bye);
+                transaction = sipProvider.getNewClientTransaction(bye);
                 session.getDialog().sendRequest(transaction);
-                log.info("Sent BYE for call {}", session.getCallId());
+                log.debug("Sent BYE for call {}", session.getCallId());
             }
-            callSessions.remove(session.getDialog().getDialogId());
         } catch (Exception e) {
             log.warn("Failed to send BYE for call {}", session.getCallId(), e);
+            transaction = null;
+        } finally {
+            endCall(session, cause, party);
+        }
+        return transaction;
+    }
+
+    private void endCall(CallSession session, HangupCause cause, HangupParty party) {
+        callSessions.remove(session.getDialog().getDialogId());
+        journal(session.getCdr(), cause, party);
+        session.stopMedia();
+    }
+
+    /**
+     * 结束话单并写入日志；外呼的 future 随之完成。返回 false 表示话单此前已结束。
+     * Completes and journals the CDR, completing the outbound call's future if there is one. Returns false when the
+     * record had already been completed.
+     */
+    private boolean journal(CallDetailRecord cdr, HangupCause cause, HangupParty party) {
+        if (!cdr.complete(cause, party)) {
+            return false;
+        }
+        cdrJournal.append(cdr);
+        OutboundCall call = outboundCalls.remove(cdr.getCallId());
+        if (call != null) {
+            call.cancelRingTimeout();
+            call.getResult().complete(cdr);
         }
+        return true;
     }
 
     @Override
@@ -262,10 +1186,22 @@ public class SipAgent implements SipListener {
         Response response = responseEvent.getResponse();
         int status = response.getStatusCode();
         CSeqHeader cSeqHeader = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+        if (cSeqHeader != null && Request.INVITE.equalsIgnoreCase(cSeqHeader.getMethod())) {
+            handleInviteResponse(responseEvent);
+            return;
+        }
+        if (cSeqHeader != null && Request.OPTIONS.equalsIgnoreCase(cSeqHeader.getMethod())) {
+            CompletableFuture<Void> ping = registrarPings.get(((CallIdHeader) response.getHeader(CallIdHeader.NAME)).getCallId());
+            if (ping != null) {
+                ping.complete(null);
+            }
+            return;
+        }
         if (cSeqHeader == null || !Request.REGISTER.equalsIgnoreCase(cSeqHeader.getMethod())) {
             return;
         }
 
+        boolean deregistering = isDeregistration(responseEvent.getClientTransaction());
         if (status == Response.UNAUTHORIZED || status == Response.PROXY_AUTHENTICATION_REQUIRED) {
             log.info("Received {} for REGISTER, generating credentials", status);
             try {
@@ -273,65 +1209,111 @@ public class SipAgent implements SipListener {
                 sendRegister(authHeader);
             } catch (Exception e) {
                 log.error("Failed to respond to authentication challenge", e);
+                if (deregistering) {
+                    completeDeregistration(false);
+                }
             }
+        } else if (status >= 200 && status < 300 && deregistering) {
+            log.info("Deregistered from {} ({})", properties.getDomain(), status);
+            completeDeregistration(true);
         } else if (status >= 200 && status < 300) {
             log.info("Registration successful ({}). Refreshing in {} seconds", status, properties.getRegisterTtlSeconds());
             long delay = Math.max(5, properties.getRegisterTtlSeconds() - 10);
-            scheduler.schedule(() -> {
-                try {
-                    sendRegister(null);
-                } catch (Exception e) {
-                    log.error("Failed to refresh registration", e);
-                }
-            }, delay, TimeUnit.SECONDS);
+            scheduleRegisterRefresh(delay);
         } else {
             log.warn("Unhandled REGISTER response: {}", status);
+            if (status >= 300 && deregistering) {
+                completeDeregistration(false);
+            }
         }
     }
 
+    private static boolean isDeregistration(ClientTransaction transaction) {
+        ExpiresHeader expires = transaction != null
+                ? (ExpiresHeader) transaction.getRequest().getHeader(ExpiresHeader.NAME) : null;
+        return expires != null && expires.getExpires() == 0;
+    }
+
     private AuthorizationHeader buildAuthHeader(Response challenge, Request originalRequest) throws ParseException, NoSuchAlgorithmException, InvalidArgumentException {
-        WWWAuthenticateHeader www = (WWWAuthenticateHeader) challenge.getHeader(WWWAuthenticateHeader.NAME);
-        if (www == null) {
-            return null;
-        }
+        WWWAuthenticateHeader www = findChallenge(challenge);
+        return www != null ? buildAuthHeader(new DigestAuth(www), originalRequest) : null;
+    }
+
+    /**
+     * 取响应中的质询：401 的 WWW-Authenticate，或 407 的 Proxy-Authenticate。
+     * Returns the response's challenge: WWW-Authenticate for a 401, Proxy-Authenticate for a 407.
+     */
+    private static WWWAuthenticateHeader findChallenge(Response response) {
+        WWWAuthenticateHeader www = (WWWAuthenticateHeader) response.getHeader(WWWAuthenticateHeader.NAME);
+        return www != null ? www : (ProxyAuthenticateHeader) response.getHeader(ProxyAuthenticateHeader.NAME);
+    }
+
+    /**
+     * 按质询生成摘要认证头；代理质询对应 Proxy-Authorization，否则为 Authorization。qop=auth 时每次调用占用一个新的 nc，
+     * 并带上新的 cnonce。
+     * Builds the digest credentials for a challenge: Proxy-Authorization for a proxy challenge, Authorization
+     * otherwise. With qop=auth every call takes the next nc and a fresh cnonce.
+     */
+    private AuthorizationHeader buildAuthHeader(DigestAuth digest, Request originalRequest) throws ParseException, NoSuchAlgorithmException {
+        WWWAuthenticateHeader www = digest.getChallenge();
         String realm = www.getRealm();
         String nonce = www.getNonce();
         String uri = originalRequest.getRequestURI().toString();
         String username = properties.getUsername();
-        String password = properties.getPassword();
-
-        String ha1 = md5(username + ":" + realm + ":" + password);
-        String ha2 = md5(originalRequest.getMethod() + ":" + uri);
-        String response = md5(ha1 + ":" + nonce + ":" + ha2);
+        String qop = digest.isQopAuth() ? DigestAuth.QOP_AUTH : null;
+        int nonceCount = digest.isQopAuth() ? digest.nextNonceCount() : 0;
+        String cnonce = digest.isQopAuth() ? Long.toHexString(ThreadLocalRandom.current().nextLong()) : null;
+        String response = DigestAuth.response(username, realm, properties.getPassword(), originalRequest.getMethod(), uri,
+                nonce, qop, nonceCount, cnonce);
 
-        AuthorizationHeader header = headerFactory.createAuthorizationHeader(www.getScheme());
+        AuthorizationHeader header = www instanceof ProxyAuthenticateHeader
+                ? headerFactory.createProxyAuthorizationHeader(www.getScheme())
+                : headerFactory.createAuthorizationHeader(www.getScheme());
         header.setUsername(username);
         header.setRealm(realm);
         header.setNonce(nonce);
         header.setURI((SipURI) originalRequest.getRequestURI());
         header.setResponse(response);
         header.setAlgorithm("MD5");
-        return header;
-    }
-
-    private String md5(String value) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] digest = md.digest(value.getBytes(StandardCharsets.UTF_8));
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) {
-            sb.append(String.format("%02x", b));
+        if (www.getOpaque() != null) {
+            header.setOpaque(www.getOpaque());
+        }
+        if (qop != null) {
+            header.setQop(qop);
+            header.setNonceCount(nonceCount);
+            header.setCNonce(cnonce);
         }
-        return sb.toString();
+        return header;
     }
 
     @Override
     public void processTimeout(TimeoutEvent timeoutEvent) {
         log.warn("SIP transaction timed out: {}", timeoutEvent.getTimeout());
+        ClientTransaction transaction = timeoutEvent.isServerTransaction() ? null : timeoutEvent.getClientTransaction();
+        if (transaction != null && Request.REGISTER.equals(transaction.getRequest().getMethod()) && isDeregistration(transaction)) {
+            completeDeregistration(false);
+            return;
+        }
+        if (transaction == null || !Request.INVITE.equals(transaction.getRequest().getMethod())) {
+            return;
+        }
+        String callId = ((CallIdHeader) transaction.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+        OutboundCall call = outboundCalls.get(callId);
+        if (call != null && call.getTransaction() == transaction) {
+            if (call.isCancelled()) {
+                failOutbound(call, Response.REQUEST_TIMEOUT, HangupCause.NO_ANSWER, HangupParty.LOCAL);
+            } else {
+                failOutbound(call, Response.REQUEST_TIMEOUT, HangupCause.RECOVERY_ON_TIMER_EXPIRE, HangupParty.SYSTEM);
+            }
+        }
     }
 
     @Override
     public void processIOException(IOExceptionEvent exceptionEvent) {
-        log.error("SIP IO exception", exceptionEvent);
+        log.error("SIP IO exception towards {}:{} ({})", exceptionEvent.getHost(), exceptionEvent.getPort(), exceptionEvent.getTransport());
+        if (registrarFlow != null && registrarFlow.isFlowTo(exceptionEvent.getHost(), exceptionEvent.getPort())) {
+            registrarFlow.connectionLost();
+        }
     }
 
     @Override
@@ -342,8 +1324,9 @@ public class SipAgent implements SipListener {
     @Override
     public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
         Dialog dialog = dialogTerminatedEvent.getDialog();
-        if (dialog != null) {
-            callSessions.remove(dialog.getDialogId());
+        CallSession session = dialog != null ? callSessions.get(dialog.getDialogId()) : null;
+        if (session != null) {
+            endCall(session, HangupCause.RECOVERY_ON_TIMER_EXPIRE, HangupParty.SYSTEM);
         }
     }
 }
@@ -0,0 +1,43 @@
+package com.example.sipbot;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 通过 {@code com.sun.management.ThreadMXBean} 统计当前线程每次操作分配的字节数。
+ * Measures bytes allocated per operation on the current thread via {@code com.sun.management.ThreadMXBean}.
+ */
+public final class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+    }
+
+    public static boolean isSupported() {
+        return THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * 先预热 warmup 次，再测量 iterations 次，返回扣除测量自身开销后的每次平均分配字节数。
+     * Runs the operation warmup times, then measures iterations runs and returns the average bytes allocated per
+     * run, net of the meter's own overhead.
+     */
+    public static double bytesPerOperation(int warmup, int iterations, Runnable operation) {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        long overhead = measure(1, () -> { });
+        long allocated = measure(iterations, operation) - overhead;
+        return Math.max(0, allocated) / (double) iterations;
+    }
+
+    private static long measure(int iterations, Runnable operation) {
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return THREADS.getThreadAllocatedBytes(threadId) - before;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.sipbot.cdr;
+
+import com.example.sipbot.config.SipProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 话单日志滚动：同一秒内多次滚动不得丢失任何话单。
+ * CDR journal rotation: several rotations within one second must not lose any record.
+ */
+class CdrJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rapidRotationKeepsEveryRecord() throws Exception {
+        SipProperties properties = new SipProperties();
+        properties.setCdrFile(dir.resolve("cdr.jsonl").toString());
+        properties.setCdrMaxFileBytes(1);
+        properties.setCdrFlushIntervalMillis(10);
+        CdrJournal journal = new CdrJournal(properties);
+        journal.start();
+
+        int records = 40;
+        for (int i = 0; i < records; i++) {
+            CallDetailRecord cdr = new CallDetailRecord("call-" + i, "inbound", System.currentTimeMillis());
+            cdr.complete(HangupCause.NORMAL_CLEARING, HangupParty.REMOTE);
+            assertThat(journal.append(cdr)).isTrue();
+            Thread.sleep(12);
+        }
+        journal.stop();
+
+        List<Path> files = listFiles();
+        assertThat(files.size()).as("rotated files").isGreaterThan(2);
+        List<String> lines = files.stream().flatMap(CdrJournalTest::lines).collect(Collectors.toList());
+        assertThat(lines).hasSize(records);
+        for (int i = 0; i < records; i++) {
+            String callId = "\"call-" + i + "\"";
+            assertThat(lines).anyMatch(line -> line.contains(callId));
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    private static Stream<String> lines(Path file) {
+        try {
+            return Files.readAllLines(file).stream().filter(line -> !line.isEmpty());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
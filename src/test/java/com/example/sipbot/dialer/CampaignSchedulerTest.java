@@ -0,0 +1,171 @@
+package com.example.sipbot.dialer;
+
+import com.example.sipbot.cdr.CallDetailRecord;
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.sip.SipAgent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 外呼调度：令牌桶限速、空闲后不突发、并发上限、排空暂停与多任务轮转。节拍由测试按给定时间驱动。
+ * Campaign scheduling: token bucket pacing, no burst after idling, the concurrency limit, pausing while draining,
+ * and taking turns between campaigns. Ticks are driven by the test at chosen times.
+ */
+class CampaignSchedulerTest {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long START = TimeUnit.SECONDS.toNanos(1_000);
+
+    private SipAgent sipAgent;
+    private SipProperties properties;
+    private CampaignScheduler scheduler;
+    private final List<String> dialed = new ArrayList<>();
+    private final List<CompletableFuture<CallDetailRecord>> calls = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        sipAgent = mock(SipAgent.class);
+        when(sipAgent.originate(anyString())).thenAnswer(invocation -> {
+            dialed.add(invocation.getArgument(0));
+            CompletableFuture<CallDetailRecord> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        });
+        properties = new SipProperties();
+        properties.setDialerMaxConcurrentCalls(10_000);
+        scheduler = new CampaignScheduler(sipAgent, properties);
+    }
+
+    @Test
+    void dialsAtTheConfiguredRate() {
+        properties.setDialerCallsPerSecond(50);
+        scheduler.submit("rate", targets("n", 1_000));
+        long now = START;
+        scheduler.tick(now);
+        int initial = dialed.size();
+        for (int i = 0; i < 100; i++) {
+            now += TICK_NANOS;
+            scheduler.tick(now);
+        }
+        // 1 秒 50 通，外加首个节拍时桶内已有的令牌。 Fifty calls in one second plus what the bucket held at the first tick.
+        assertThat(initial).isLessThanOrEqualTo(1);
+        assertThat(dialed.size() - initial).isBetween(49, 50);
+    }
+
+    @Test
+    void fractionalRatesAccumulateAcrossTicks() {
+        properties.setDialerCallsPerSecond(2.5);
+        scheduler.submit("slow", targets("n", 100));
+        long now = START;
+        scheduler.tick(now);
+        dialed.clear();
+        for (int i = 0; i < 400; i++) {
+            now += TICK_NANOS;
+            scheduler.tick(now);
+        }
+        assertThat(dialed).hasSize(10);
+    }
+
+    @Test
+    void idlePeriodDoesNotTurnIntoABurst() {
+        properties.setDialerCallsPerSecond(1_000);
+        scheduler.tick(START);
+        // 空闲 10 秒后提交：桶容量只有两个节拍的令牌（20 个）。
+        // Submitted after ten idle seconds: the bucket only holds two ticks' worth of tokens (20).
+        scheduler.submit("burst", targets("n", 1_000));
+        scheduler.tick(START + TimeUnit.SECONDS.toNanos(10));
+        assertThat(dialed).hasSize(20);
+    }
+
+    @Test
+    void concurrencyLimitHoldsBackDialing() {
+        properties.setDialerCallsPerSecond(1_000);
+        properties.setDialerMaxConcurrentCalls(3);
+        Campaign campaign = scheduler.submit("limited", targets("n", 10));
+        long now = START;
+        for (int i = 0; i < 10; i++) {
+            scheduler.tick(now += TICK_NANOS);
+        }
+        assertThat(dialed).hasSize(3);
+        assertThat(scheduler.getActiveCalls()).isEqualTo(3);
+
+        calls.get(0).complete(answered("n0"));
+        assertThat(scheduler.getActiveCalls()).isEqualTo(2);
+        scheduler.tick(now + TICK_NANOS);
+        assertThat(dialed).hasSize(4);
+        assertThat(campaign.getActive()).isEqualTo(3);
+    }
+
+    @Test
+    void drainingPausesDialingWithoutSavingTokens() {
+        properties.setDialerCallsPerSecond(100);
+        scheduler.submit("drain", targets("n", 100));
+        when(sipAgent.isDraining()).thenReturn(true);
+        long now = START;
+        for (int i = 0; i < 100; i++) {
+            scheduler.tick(now += TICK_NANOS);
+        }
+        assertThat(dialed).isEmpty();
+
+        when(sipAgent.isDraining()).thenReturn(false);
+        scheduler.tick(now += TICK_NANOS);
+        assertThat(dialed).hasSize(1);
+    }
+
+    @Test
+    void campaignsTakeTurns() {
+        properties.setDialerCallsPerSecond(1_000);
+        scheduler.submit("a", targets("a", 3));
+        scheduler.submit("b", targets("b", 3));
+        long now = START;
+        for (int i = 0; i < 5; i++) {
+            scheduler.tick(now += TICK_NANOS);
+        }
+        assertThat(dialed).containsExactly("a0", "b0", "a1", "b1", "a2", "b2");
+    }
+
+    @Test
+    void outcomesAreCountedAndTheCampaignCompletes() {
+        properties.setDialerCallsPerSecond(1_000);
+        Campaign campaign = scheduler.submit("outcomes", targets("n", 3));
+        long now = START;
+        scheduler.tick(now += TICK_NANOS);
+        assertThat(dialed).hasSize(3);
+
+        calls.get(0).complete(answered("n0"));
+        calls.get(1).complete(new CallDetailRecord("n1", "outbound", System.currentTimeMillis()));
+        calls.get(2).completeExceptionally(new IllegalStateException("draining"));
+        scheduler.tick(now + TICK_NANOS);
+
+        assertThat(campaign.getAnswered()).isEqualTo(1);
+        assertThat(campaign.getFailed()).isEqualTo(2);
+        assertThat(campaign.getActive()).isZero();
+        assertThat(campaign.whenDone()).isCompletedWithValue(campaign);
+        assertThat(scheduler.getActiveCalls()).isZero();
+    }
+
+    private static List<String> targets(String prefix, int count) {
+        List<String> targets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            targets.add(prefix + i);
+        }
+        return Collections.unmodifiableList(targets);
+    }
+
+    private static CallDetailRecord answered(String callId) {
+        CallDetailRecord cdr = new CallDetailRecord(callId, "outbound", System.currentTimeMillis());
+        cdr.markAnswered();
+        return cdr;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.sipbot.dialer;
+
+import com.example.sipbot.cdr.CallDetailRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 外呼任务计数：拨号顺序、接通与失败的统计、取消，以及全部呼叫结束后才完成。
+ * Campaign accounting: dialing order, answered and failed counts, cancelling, and completing only once every call
+ * has ended.
+ */
+class CampaignTest {
+
+    @Test
+    void targetsAreDialedInOrder() {
+        Campaign campaign = new Campaign("order", Arrays.asList("a", "b", "c"));
+        assertThat(campaign.nextTarget()).isEqualTo("a");
+        assertThat(campaign.nextTarget()).isEqualTo("b");
+        assertThat(campaign.getRemaining()).isEqualTo(1);
+    }
+
+    @Test
+    void completesOnlyAfterTheLastCallEnds() {
+        Campaign campaign = new Campaign("done", Arrays.asList("a", "b"));
+        dial(campaign);
+        dial(campaign);
+        assertThat(campaign.nextTarget()).isNull();
+        assertThat(campaign.getActive()).isEqualTo(2);
+        assertThat(campaign.whenDone()).isNotDone();
+
+        campaign.onCompleted(answered());
+        assertThat(campaign.whenDone()).isNotDone();
+        campaign.onCompleted(null);
+        assertThat(campaign.whenDone()).isCompletedWithValue(campaign);
+        assertThat(campaign.getAnswered()).isEqualTo(1);
+        assertThat(campaign.getFailed()).isEqualTo(1);
+        assertThat(campaign.getActive()).isZero();
+    }
+
+    @Test
+    void callsEndingBeforeTheQueueRunsDryDoNotComplete() {
+        Campaign campaign = new Campaign("early", Arrays.asList("a", "b"));
+        dial(campaign);
+        campaign.onCompleted(answered());
+        assertThat(campaign.whenDone()).as("b still to dial").isNotDone();
+        dial(campaign);
+        campaign.onCompleted(answered());
+        assertThat(campaign.whenDone()).as("queue not yet seen empty").isNotDone();
+        assertThat(campaign.nextTarget()).isNull();
+        assertThat(campaign.whenDone()).isCompleted();
+    }
+
+    @Test
+    void unansweredCallCountsAsFailed() {
+        Campaign campaign = new Campaign("unanswered", Collections.singletonList("a"));
+        dial(campaign);
+        campaign.onCompleted(new CallDetailRecord("a", "outbound", System.currentTimeMillis()));
+        assertThat(campaign.getFailed()).isEqualTo(1);
+        assertThat(campaign.getAnswered()).isZero();
+    }
+
+    @Test
+    void cancelStopsDialingButWaitsForCallsInProgress() {
+        Campaign campaign = new Campaign("cancel", Arrays.asList("a", "b", "c"));
+        dial(campaign);
+        campaign.cancel();
+        assertThat(campaign.getRemaining()).isZero();
+        assertThat(campaign.nextTarget()).isNull();
+        assertThat(campaign.whenDone()).isNotDone();
+        campaign.onCompleted(answered());
+        assertThat(campaign.whenDone()).isCompleted();
+        assertThat(campaign.getDialed()).isEqualTo(1);
+    }
+
+    @Test
+    void emptyCampaignCompletesOnFirstPoll() {
+        Campaign campaign = new Campaign("empty", Collections.emptyList());
+        assertThat(campaign.nextTarget()).isNull();
+        assertThat(campaign.whenDone()).isCompleted();
+    }
+
+    private static void dial(Campaign campaign) {
+        assertThat(campaign.nextTarget()).isNotNull();
+        campaign.onDialed();
+    }
+
+    private static CallDetailRecord answered() {
+        CallDetailRecord cdr = new CallDetailRecord("call", "outbound", System.currentTimeMillis());
+        cdr.markAnswered();
+        return cdr;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 静音分类与舒适噪声（RFC 3389）发送：静音开始发一个 CN，之后每个刷新周期一个，静音后的首个语音包置 marker。
+ * Silence classification and comfort noise (RFC 3389): one CN when silence starts, one per refresh period after
+ * that, and the marker bit on the first speech packet once silence ends.
+ */
+class FrameSenderTest {
+
+    private static final int FRAME = AudioPrompt.FRAME_SIZE;
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 40_000);
+    private static final int CN_PT = 13;
+    // 与 FrameSender 的刷新周期一致（500 ms）。 Matches FrameSender's refresh period (500 ms).
+    private static final int CN_REFRESH_FRAMES = 25;
+    private static final byte MU_LAW_ZERO = (byte) 0xFF;
+    private static final byte MU_LAW_LOUD = 0x00;
+
+    private StubResolver resolver;
+    private EmbeddedChannel channel;
+    private final AtomicInteger shutdowns = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        resolver = new StubResolver();
+        channel = new EmbeddedChannel();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+        resolver.shutdown();
+    }
+
+    @Test
+    void digitalSilenceIsClassifiedAtTheQuietestLevel() {
+        AudioPrompt prompt = AudioPrompt.of(frames(MU_LAW_ZERO, 3));
+        assertThat(prompt.silentFrameCount()).isEqualTo(3);
+        assertThat(prompt.frameLevel(0, FRAME)).isEqualTo((byte) 127);
+    }
+
+    @Test
+    void lowNoiseIsClassifiedByItsLevel() {
+        byte quiet = noisePrompt(30).frameLevel(0, FRAME);
+        byte louder = noisePrompt(100).frameLevel(0, FRAME);
+        // 噪声电平为 -dBov：越响数值越小，但仍低于语音阈值。
+        // Noise levels are -dBov: louder noise gives a smaller value while staying below the voice threshold.
+        assertThat(quiet).isBetween((byte) 40, (byte) 126);
+        assertThat(louder).isBetween((byte) 40, (byte) 126).isLessThan(quiet);
+    }
+
+    @Test
+    void oneLoudSampleMakesTheFrameVoice() {
+        byte[] muLaw = frames(MU_LAW_ZERO, 2);
+        muLaw[FRAME + 17] = MU_LAW_LOUD;
+        AudioPrompt prompt = AudioPrompt.of(muLaw);
+        assertThat(prompt.silentFrameCount()).isEqualTo(1);
+        assertThat(prompt.frameLevel(0, FRAME)).isNotEqualTo(AudioPrompt.VOICE);
+        assertThat(prompt.frameLevel(FRAME, FRAME)).isEqualTo(AudioPrompt.VOICE);
+        // 跨越静音帧与语音帧的发送帧按语音处理。 A send frame straddling silence and voice counts as voice.
+        assertThat(prompt.frameLevel(FRAME / 2, FRAME)).isEqualTo(AudioPrompt.VOICE);
+    }
+
+    @Test
+    void silenceSendsComfortNoiseAtStartAndEveryRefreshPeriod() {
+        int silentFrames = 60;
+        byte[] muLaw = concat(frames(MU_LAW_LOUD, 2), frames(MU_LAW_ZERO, silentFrames), frames(MU_LAW_LOUD, 1));
+        List<ByteBuf> packets = play(muLaw, CN_PT, 2 + silentFrames + 1);
+
+        // 2 个语音包，静音第 0、25、50 帧各一个 CN，最后 1 个语音包。
+        // Two speech packets, a CN at silent frames 0, 25 and 50, then one last speech packet.
+        assertThat(packets).hasSize(6);
+        int[] payloadTypes = new int[packets.size()];
+        for (int i = 0; i < packets.size(); i++) {
+            payloadTypes[i] = packets.get(i).getUnsignedByte(1) & 0x7F;
+        }
+        assertThat(payloadTypes).containsExactly(0, 0, CN_PT, CN_PT, CN_PT, 0);
+        assertThat(timestampOf(packets.get(2))).isEqualTo(2L * FRAME);
+        assertThat(timestampOf(packets.get(3))).isEqualTo((2L + CN_REFRESH_FRAMES) * FRAME);
+        assertThat(timestampOf(packets.get(4))).isEqualTo((2L + 2 * CN_REFRESH_FRAMES) * FRAME);
+        assertThat(timestampOf(packets.get(5))).isEqualTo((2L + silentFrames) * FRAME);
+
+        for (int i = 2; i <= 4; i++) {
+            assertThat(packets.get(i).readableBytes()).as("CN packet size").isEqualTo(FrameSender.HEADER_SIZE + 1);
+            assertThat(packets.get(i).getByte(FrameSender.HEADER_SIZE)).as("noise level").isEqualTo((byte) 127);
+        }
+        for (int i = 0; i < packets.size(); i++) {
+            assertThat(sequenceOf(packets.get(i))).as("sequence of packet %d", i).isEqualTo(i);
+            assertThat(markerOf(packets.get(i))).as("marker of packet %d", i).isEqualTo(i == 5);
+        }
+        release(packets);
+    }
+
+    @Test
+    void withoutComfortNoiseSilenceIsSentAsPcmu() {
+        byte[] muLaw = concat(frames(MU_LAW_LOUD, 1), frames(MU_LAW_ZERO, 30), frames(MU_LAW_LOUD, 1));
+        List<ByteBuf> packets = play(muLaw, -1, 32);
+        assertThat(packets).hasSize(32);
+        for (ByteBuf packet : packets) {
+            assertThat(packet.getUnsignedByte(1)).as("PCMU without marker").isEqualTo((short) 0);
+        }
+        release(packets);
+    }
+
+    /**
+     * 首个提示音尚未加载完时预组失败，不得推进时间戳或置静音标记：加载完成后的首包仍是序号 0、时间戳 0、无 marker。
+     * A prime attempted before the first prompt has loaded must not advance the timestamp or set the silence flag:
+     * once loaded, the first packet still has sequence 0, timestamp 0 and no marker.
+     */
+    @Test
+    void failedPrimeLeavesTheStreamUntouched() {
+        Playlist playlist = new Playlist(resolver).add("tts:late");
+        FrameSender sender = new FrameSender(playlist, CN_PT, channel, REMOTE, new RtpStreamStats(),
+                shutdowns::incrementAndGet, null);
+        assertThat(sender.prime()).isFalse();
+        assertThat(sender.prime()).isFalse();
+
+        resolver.put("tts:late", AudioPrompt.of(frames(MU_LAW_LOUD, 2)));
+        assertThat(sender.prime()).isTrue();
+        sender.run();
+        DatagramPacket packet = channel.readOutbound();
+        assertThat(sequenceOf(packet.content())).isZero();
+        assertThat(timestampOf(packet.content())).isZero();
+        assertThat(markerOf(packet.content())).isFalse();
+        packet.release();
+    }
+
+    /**
+     * 依次调用发送器 {@code ticks} 次，然后再调用一次确认播放结束。
+     * Runs the sender {@code ticks} times, then once more to confirm playback is over.
+     */
+    private List<ByteBuf> play(byte[] muLaw, int comfortNoisePayloadType, int ticks) {
+        resolver.put("tts:prompt", AudioPrompt.of(muLaw));
+        Playlist playlist = new Playlist(resolver).add("tts:prompt");
+        FrameSender sender = new FrameSender(playlist, comfortNoisePayloadType, channel, REMOTE, new RtpStreamStats(),
+                shutdowns::incrementAndGet, null);
+        List<ByteBuf> packets = new ArrayList<>();
+        for (int i = 0; i < ticks; i++) {
+            sender.run();
+            DatagramPacket packet;
+            while ((packet = channel.readOutbound()) != null) {
+                assertThat(packet.recipient()).isSameAs(REMOTE);
+                packets.add(packet.content());
+            }
+        }
+        assertThat(shutdowns.get()).isZero();
+        sender.run();
+        assertThat(shutdowns.get()).as("finished after the last frame").isEqualTo(1);
+        return packets;
+    }
+
+    private static AudioPrompt noisePrompt(int amplitude) {
+        byte[] pcm = new byte[FRAME * 2];
+        for (int i = 0; i < FRAME; i++) {
+            short sample = (short) (i % 2 == 0 ? amplitude : -amplitude);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return AudioPrompt.of(MuLawCodec.encodePcm16LeToMuLaw(pcm));
+    }
+
+    private static byte[] frames(byte value, int count) {
+        byte[] muLaw = new byte[count * FRAME];
+        Arrays.fill(muLaw, value);
+        return muLaw;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private static boolean markerOf(ByteBuf packet) {
+        return (packet.getUnsignedByte(1) & 0x80) != 0;
+    }
+
+    private static int sequenceOf(ByteBuf packet) {
+        return packet.getUnsignedShort(2);
+    }
+
+    private static long timestampOf(ByteBuf packet) {
+        return packet.getUnsignedInt(4);
+    }
+
+    private static void release(List<ByteBuf> packets) {
+        packets.forEach(ByteBuf::release);
+    }
+
+    /**
+     * 返回预置提示音的解析器，不读盘也不合成；未预置的条目保持加载中，直到测试调用 {@link #put}。
+     * Resolver that hands out preset prompts without touching disk or synthesis; entries not preset stay loading
+     * until the test calls {@link #put}.
+     */
+    static final class StubResolver extends PromptResolver {
+
+        private final Map<String, CompletableFuture<AudioPrompt>> prompts = new ConcurrentHashMap<>();
+
+        StubResolver() {
+            super(new AudioFileLoader(), new PcmTtsGenerator());
+        }
+
+        void put(String spec, AudioPrompt prompt) {
+            prompts.computeIfAbsent(spec, s -> new CompletableFuture<>()).complete(prompt);
+        }
+
+        @Override
+        public CompletableFuture<AudioPrompt> resolveAsync(String spec) {
+            return prompts.computeIfAbsent(spec, s -> new CompletableFuture<>());
+        }
+    }
+}
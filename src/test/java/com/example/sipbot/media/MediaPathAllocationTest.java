@@ -0,0 +1,178 @@
+package com.example.sipbot.media;
+
+import com.example.sipbot.AllocationMeter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 媒体逐帧路径的内存分配回归测试：超出预算即失败，防止新功能给 20 ms 发送循环引入 GC 压力。
+ * Allocation regression tests for the per-frame media path; they fail when a budget is exceeded so new features
+ * cannot quietly add GC pressure to the 20 ms send loop.
+ */
+class MediaPathAllocationTest {
+
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 10_000;
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 40_000);
+    // 每帧一个 24 字节的 DatagramPacket 外壳（RTP 套接字不连接，见 RtpAudioStreamer），另加少量 JIT/计数器噪声余量；
+    // 仍远小于每帧复制一份 byte[] 负载。
+    // One 24-byte DatagramPacket envelope per frame (the RTP socket is unconnected, see RtpAudioStreamer) plus a
+    // little slack for JIT and counter noise; still far below copying the payload into a byte[] per frame.
+    private static final double FRAME_BUDGET_BYTES = 40;
+
+    private static ResourceLeakDetector.Level leakDetection;
+
+    private PromptResolver resolver;
+    private EmbeddedChannel channel;
+
+    /**
+     * Netty 泄漏检测会对约 1/128 的缓冲分配做采样跟踪，属于诊断开销而非发送路径本身，测量时关闭。
+     * Netty's leak detector samples about 1 in 128 buffer allocations; that is diagnostic overhead rather than the
+     * send path itself, so it is switched off while measuring.
+     */
+    @BeforeAll
+    static void disableLeakDetection() {
+        leakDetection = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
+    }
+
+    @AfterAll
+    static void restoreLeakDetection() {
+        ResourceLeakDetector.setLevel(leakDetection);
+    }
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(AllocationMeter.isSupported(), "thread allocation accounting not available");
+        resolver = new PromptResolver(new AudioFileLoader(), new PcmTtsGenerator());
+        channel = new EmbeddedChannel();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (channel != null) {
+            channel.finishAndReleaseAll();
+        }
+        if (resolver != null) {
+            resolver.shutdown();
+        }
+    }
+
+    @Test
+    void voiceFramesStayWithinAllocationBudget() throws Exception {
+        FrameSender sender = newSender(-1);
+        double perFrame = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> sendOneFrame(sender));
+        assertThat(perFrame).as("bytes allocated per PCMU frame").isLessThanOrEqualTo(FRAME_BUDGET_BYTES);
+    }
+
+    @Test
+    void comfortNoiseFramesStayWithinAllocationBudget() throws Exception {
+        FrameSender sender = newSender(13);
+        double perFrame = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> sendOneFrame(sender));
+        assertThat(perFrame).as("bytes allocated per frame with CN").isLessThanOrEqualTo(FRAME_BUDGET_BYTES);
+    }
+
+    @Test
+    void srtpFramesStayWithinAllocationBudget() throws Exception {
+        SrtpTransformer srtp = new SrtpTransformer(SrtpTransformer.generateInlineKey(), SrtpTransformer.generateInlineKey());
+        FrameSender sender = newSender(13, srtp);
+        double perFrame = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> sendOneFrame(sender));
+        assertThat(perFrame).as("bytes allocated per SRTP frame").isLessThanOrEqualTo(FRAME_BUDGET_BYTES);
+    }
+
+    @Test
+    void srtcpProtectionIsGarbageFree() {
+        byte[] key = SrtpTransformer.generateInlineKey();
+        SrtpTransformer sender = new SrtpTransformer(key, key);
+        ByteBuf report = Unpooled.buffer(64 + SrtpTransformer.RTCP_OVERHEAD);
+        double perPacket = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> {
+            report.clear();
+            report.writeByte(0x81).writeByte(RtcpCodec.PT_RR).writeShort(7).writeInt(0x5678);
+            report.writeInt(0x1234).writeByte(3).writeMedium(10).writeInt(500).writeInt(40).writeInt(0).writeInt(0);
+            sender.protectRtcp(report);
+            if (!sender.unprotectRtcp(report)) {
+                throw new AssertionError("SRTCP round trip failed");
+            }
+        });
+        assertThat(perPacket).as("bytes allocated per SRTCP protect + unprotect").isLessThanOrEqualTo(1);
+    }
+
+    /**
+     * 加载提示音时的编码入口：除输出数组本身（负载加 16 字节数组头）外不应再分配。
+     * The encoder as prompt loading calls it: nothing beyond the output array itself, its payload plus a 16-byte
+     * array header, should be allocated.
+     */
+    @Test
+    void muLawEncodingAllocatesOnlyTheOutputArray() {
+        byte[] pcm = new byte[AudioPrompt.FRAME_SIZE * 2 * 50];
+        for (int i = 0; i < pcm.length; i += 2) {
+            short sample = (short) (Math.sin(i / 10.0) * 8000);
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        byte[][] encoded = new byte[1][];
+        double perCall = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS / 10,
+                () -> encoded[0] = MuLawCodec.encodePcm16LeToMuLaw(pcm));
+        assertThat(perCall).as("bytes allocated per encoded second").isLessThanOrEqualTo(pcm.length / 2 + 16 + 1);
+        assertThat(encoded[0]).hasSize(pcm.length / 2);
+    }
+
+    @Test
+    void inboundRtpAndRtcpAccountingIsGarbageFree() {
+        RtpStreamStats stats = new RtpStreamStats();
+        stats.recordSenderState(0x1234, 0, System.nanoTime());
+        ByteBuf report = Unpooled.buffer(64);
+        report.writeByte(0x81).writeByte(RtcpCodec.PT_RR).writeShort(7).writeInt(0x5678);
+        report.writeInt(0x1234).writeByte(3).writeMedium(10).writeInt(500).writeInt(40).writeInt(0).writeInt(0);
+        int[] sequence = {0};
+        double perPacket = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> {
+            int seq = sequence[0]++;
+            stats.recordReceived(seq & 0xFFFF, seq * 160L, 0x5678, System.nanoTime());
+            RtcpCodec.parse(report, stats, System.currentTimeMillis(), System.nanoTime());
+        });
+        assertThat(perPacket).as("bytes allocated per inbound RTP + RTCP packet").isLessThanOrEqualTo(1);
+        assertThat(stats.getRemoteCumulativeLost()).isEqualTo(10);
+    }
+
+    /**
+     * 同一提示音重复加入播放列表，测量过程中也覆盖提示音之间的无缝切换。
+     * The same prompt is queued repeatedly so the measured frames also cover gapless prompt transitions.
+     */
+    private FrameSender newSender(int comfortNoisePayloadType) throws Exception {
+        return newSender(comfortNoisePayloadType, null);
+    }
+
+    private FrameSender newSender(int comfortNoisePayloadType, SrtpTransformer srtp) throws Exception {
+        String spec = PromptResolver.TTS_PREFIX + "Allocation budget";
+        AudioPrompt prompt = resolver.resolveAsync(spec).get();
+        int framesNeeded = WARMUP + ITERATIONS + 1;
+        int repeats = framesNeeded * AudioPrompt.FRAME_SIZE / prompt.length() + 2;
+        Playlist playlist = new Playlist(resolver);
+        for (int i = 0; i < repeats; i++) {
+            playlist.add(spec);
+        }
+        return new FrameSender(playlist, comfortNoisePayloadType, channel, REMOTE, new RtpStreamStats(),
+                () -> { throw new AssertionError("playlist ran dry during measurement"); }, srtp);
+    }
+
+    private void sendOneFrame(FrameSender sender) {
+        sender.run();
+        DatagramPacket packet;
+        while ((packet = channel.readOutbound()) != null) {
+            packet.release();
+        }
+    }
+}
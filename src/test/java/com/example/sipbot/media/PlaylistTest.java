@@ -0,0 +1,189 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 播放列表的预取顺序、加载期间不阻塞、备用条目，以及多段提示音无缝拼接后序号与时间戳连续。
+ * Playlist prefetch order, never blocking while a prompt loads, fallback entries, and continuous sequence numbers
+ * and timestamps across gaplessly joined prompts.
+ */
+class PlaylistTest {
+
+    private static final int FRAME = AudioPrompt.FRAME_SIZE;
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 40_000);
+
+    private ManualResolver resolver;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        resolver = new ManualResolver();
+        channel = new EmbeddedChannel();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+        resolver.shutdown();
+    }
+
+    @Test
+    void onlyTheNextEntryIsPrefetched() {
+        Playlist playlist = new Playlist(resolver).add("tts:a").add("tts:b").add("tts:c");
+        assertThat(resolver.requested).containsExactly("tts:a");
+
+        assertThat(playlist.poll()).as("first prompt still loading").isNull();
+        assertThat(resolver.requested).containsExactly("tts:a");
+
+        AudioPrompt a = prompt(1, (byte) 1);
+        resolver.complete("tts:a", a);
+        assertThat(playlist.poll()).isSameAs(a);
+        // 发送器开始播放一条后立即预取下一条，且只预取一条。
+        // Once the sender starts playing a prompt it prefetches the next one, and only that one.
+        playlist.prefetch();
+        playlist.prefetch();
+        assertThat(resolver.requested).containsExactly("tts:a", "tts:b");
+        assertThat(playlist.isExhausted()).isFalse();
+
+        resolver.complete("tts:b", prompt(1, (byte) 2));
+        assertThat(playlist.poll()).isNotNull();
+        resolver.complete("tts:c", prompt(1, (byte) 3));
+        assertThat(playlist.poll()).isNotNull();
+        assertThat(playlist.poll()).isNull();
+        assertThat(playlist.isExhausted()).isTrue();
+    }
+
+    @Test
+    void entriesAddedDuringPlaybackArePrefetched() {
+        Playlist playlist = new Playlist(resolver).add("tts:a");
+        resolver.complete("tts:a", prompt(1, (byte) 1));
+        assertThat(playlist.poll()).isNotNull();
+        assertThat(playlist.isExhausted()).isTrue();
+
+        playlist.add("tts:b");
+        assertThat(resolver.requested).containsExactly("tts:a", "tts:b");
+        assertThat(playlist.isExhausted()).isFalse();
+    }
+
+    @Test
+    void emptyPromptPlaysTheFallback() {
+        Playlist playlist = new Playlist(resolver).add("file:missing.wav", "tts:hello");
+        resolver.complete("file:missing.wav", AudioPrompt.empty());
+        assertThat(resolver.requested).containsExactly("file:missing.wav", "tts:hello");
+        assertThat(playlist.poll()).as("fallback still loading").isNull();
+
+        AudioPrompt hello = prompt(1, (byte) 7);
+        resolver.complete("tts:hello", hello);
+        assertThat(playlist.poll()).isSameAs(hello);
+    }
+
+    @Test
+    void fallbackIsNotLoadedWhenThePromptResolves() {
+        Playlist playlist = new Playlist(resolver).add("file:greeting.wav", "tts:hello");
+        AudioPrompt greeting = prompt(1, (byte) 1);
+        resolver.complete("file:greeting.wav", greeting);
+        assertThat(playlist.poll()).isSameAs(greeting);
+        assertThat(resolver.requested).containsExactly("file:greeting.wav");
+    }
+
+    /**
+     * 长度不是整帧的三段提示音（250 + 230 + 340 字节）依次播放：除最后一个外每个包都是满帧，序号与时间戳连续，
+     * 负载与原始数据逐字节一致。
+     * Three prompts whose lengths are not whole frames (250 + 230 + 340 bytes) play back to back: every packet but
+     * the last is a full frame, sequence numbers and timestamps are continuous, and the payload matches the source
+     * byte for byte.
+     */
+    @Test
+    void promptsAreJoinedWithoutGaps() {
+        byte[][] parts = {ramp(250, 0), ramp(230, 50), ramp(340, 100)};
+        Playlist playlist = new Playlist(resolver);
+        for (int i = 0; i < parts.length; i++) {
+            playlist.add("tts:" + i);
+            resolver.complete("tts:" + i, AudioPrompt.of(parts[i]));
+        }
+        FrameSender sender = new FrameSender(playlist, -1, channel, REMOTE, new RtpStreamStats(), () -> { }, null);
+
+        List<ByteBuf> packets = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            sender.run();
+            DatagramPacket packet;
+            while ((packet = channel.readOutbound()) != null) {
+                assertThat(packet.recipient()).isSameAs(REMOTE);
+                packets.add(packet.content());
+            }
+        }
+
+        // 820 字节 = 5 个满帧 + 20 字节尾帧。 820 bytes = five full frames and a 20-byte tail.
+        assertThat(packets).hasSize(6);
+        byte[] sent = new byte[820];
+        int offset = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            ByteBuf packet = packets.get(i);
+            int payload = packet.readableBytes() - FrameSender.HEADER_SIZE;
+            assertThat(payload).as("payload of packet %d", i).isEqualTo(i < 5 ? FRAME : 20);
+            assertThat(packet.getUnsignedShort(2)).as("sequence of packet %d", i).isEqualTo(i);
+            assertThat(packet.getUnsignedInt(4)).as("timestamp of packet %d", i).isEqualTo((long) i * FRAME);
+            packet.getBytes(FrameSender.HEADER_SIZE, sent, offset, payload);
+            offset += payload;
+            packet.release();
+        }
+        byte[] expected = new byte[820];
+        System.arraycopy(parts[0], 0, expected, 0, 250);
+        System.arraycopy(parts[1], 0, expected, 250, 230);
+        System.arraycopy(parts[2], 0, expected, 480, 340);
+        assertThat(sent).containsExactly(expected);
+    }
+
+    private static AudioPrompt prompt(int frames, byte value) {
+        byte[] muLaw = new byte[frames * FRAME];
+        Arrays.fill(muLaw, value);
+        return AudioPrompt.of(muLaw);
+    }
+
+    private static byte[] ramp(int length, int start) {
+        byte[] muLaw = new byte[length];
+        for (int i = 0; i < length; i++) {
+            muLaw[i] = (byte) (start + i);
+        }
+        return muLaw;
+    }
+
+    /**
+     * 记录请求顺序、由测试决定何时完成加载的解析器。
+     * Resolver that records the order of requests and lets the test decide when each load completes.
+     */
+    private static final class ManualResolver extends PromptResolver {
+
+        private final List<String> requested = new ArrayList<>();
+        private final Map<String, CompletableFuture<AudioPrompt>> futures = new ConcurrentHashMap<>();
+
+        ManualResolver() {
+            super(new AudioFileLoader(), new PcmTtsGenerator());
+        }
+
+        @Override
+        public CompletableFuture<AudioPrompt> resolveAsync(String spec) {
+            requested.add(spec);
+            return futures.computeIfAbsent(spec, s -> new CompletableFuture<>());
+        }
+
+        void complete(String spec, AudioPrompt prompt) {
+            futures.computeIfAbsent(spec, s -> new CompletableFuture<>()).complete(prompt);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.sipbot.media;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 提示音缓存：成功结果共享一次加载，失败或为空的结果不缓存，满时淘汰最久未使用的条目，文件修改后重新加载。
+ * Prompt caching: successful results share one load, failed or empty results are not cached, a full cache evicts
+ * the least recently used entry, and a changed file is loaded again.
+ */
+class PromptResolverTest {
+
+    @TempDir
+    Path dir;
+
+    private PromptResolver resolver;
+
+    @AfterEach
+    void tearDown() {
+        if (resolver != null) {
+            resolver.shutdown();
+        }
+    }
+
+    @Test
+    void loadedPromptIsCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        resolver = new PromptResolver(loader, new PcmTtsGenerator());
+        Path wav = writeWav("greeting.wav", 800);
+        String spec = PromptResolver.FILE_PREFIX + wav;
+
+        AudioPrompt first = resolver.resolveAsync(spec).get();
+        AudioPrompt second = resolver.resolveAsync(spec).get();
+        assertThat(first.length()).isEqualTo(800);
+        assertThat(second).isSameAs(first);
+        assertThat(loader.loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void missingFileIsLoadedAgainOnceItExists() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        resolver = new PromptResolver(loader, new PcmTtsGenerator());
+        Path wav = dir.resolve("late.wav");
+        String spec = PromptResolver.FILE_PREFIX + wav;
+
+        assertThat(resolver.resolveAsync(spec).get().isEmpty()).isTrue();
+        writeWav("late.wav", 480);
+        assertThat(resolver.resolveAsync(spec).get().length()).isEqualTo(480);
+        assertThat(loader.loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void failedLoadIsNotCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        loader.failures.set(1);
+        resolver = new PromptResolver(loader, new PcmTtsGenerator());
+        String spec = PromptResolver.FILE_PREFIX + writeWav("flaky.wav", 320);
+
+        assertThat(resolver.resolveAsync(spec).get().isEmpty()).as("first load fails").isTrue();
+        assertThat(resolver.resolveAsync(spec).get().length()).isEqualTo(320);
+        assertThat(loader.loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void fullCacheEvictsTheLeastRecentlyUsedEntry() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        resolver = new PromptResolver(loader, new PcmTtsGenerator());
+        String hot = PromptResolver.FILE_PREFIX + writeWav("hot.wav", 160);
+        String cold = PromptResolver.FILE_PREFIX + writeWav("cold.wav", 240);
+        resolver.resolveAsync(cold).get();
+        resolver.resolveAsync(hot).get();
+
+        // 每通呼叫不同的合成文本填满缓存，常用条目因被访问而保留。
+        // Per-call synthesized text fills the cache; the entry in use stays because it keeps being touched.
+        for (int i = 0; i < PromptResolver.MAX_CACHED_PROMPTS; i++) {
+            resolver.resolveAsync(PromptResolver.TTS_PREFIX + i).get();
+            resolver.resolveAsync(hot).get();
+        }
+        assertThat(loader.loads.get()).isEqualTo(2);
+
+        assertThat(resolver.resolveAsync(cold).get().length()).isEqualTo(240);
+        assertThat(resolver.resolveAsync(hot).get().length()).isEqualTo(160);
+        assertThat(loader.loads.get()).as("only the cold entry was evicted").isEqualTo(3);
+    }
+
+    @Test
+    void changedFileIsLoadedAgain() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        resolver = new PromptResolver(loader, new PcmTtsGenerator());
+        Path wav = writeWav("menu.wav", 800);
+        String spec = PromptResolver.FILE_PREFIX + wav;
+        assertThat(resolver.resolveAsync(spec).get().length()).isEqualTo(800);
+
+        writeWav("menu.wav", 400);
+        Files.setLastModifiedTime(wav, FileTime.fromMillis(Files.getLastModifiedTime(wav).toMillis() + 5_000));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resolver.resolveAsync(spec).get().length() != 400) {
+            assertThat(System.nanoTime() - deadline).as("changed file never reloaded").isNegative();
+            Thread.sleep(10);
+        }
+        assertThat(loader.loads.get()).isEqualTo(2);
+    }
+
+    private Path writeWav(String name, int samples) throws Exception {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (Math.sin(i / 5.0) * 8000);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        AudioFormat format = new AudioFormat(8000f, 16, 1, true, false);
+        Path path = dir.resolve(name);
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, samples)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, path.toFile());
+        }
+        return path;
+    }
+
+    /**
+     * 统计加载次数，并可让前几次加载抛出异常。
+     * Counts loads and can make the first few of them throw.
+     */
+    private static final class CountingLoader extends AudioFileLoader {
+
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public AudioPrompt loadPrompt(Path path) {
+            loads.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("simulated read failure");
+            }
+            return super.loadPrompt(path);
+        }
+    }
+}
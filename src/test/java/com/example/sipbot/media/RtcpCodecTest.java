@@ -0,0 +1,165 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * RTCP 编解码与接收统计的正确性：SR/RR 往返、LSR/DLSR 往返时延、A.3 丢包比例与 A.8 抖动。
+ * Correctness of RTCP encoding and receive statistics: SR/RR round trip, LSR/DLSR round-trip time, A.3 fraction
+ * lost and A.8 jitter.
+ */
+class RtcpCodecTest {
+
+    private static final int SSRC_A = 0x0A0A0A0A;
+    private static final int SSRC_B = 0x0B0B0B0B;
+    private static final byte[] CNAME = "sipbot@test".getBytes(StandardCharsets.US_ASCII);
+    private static final long START_MILLIS = 1_700_000_000_000L;
+
+    @Test
+    void senderReportRoundTripCarriesLossAndRoundTripTime() {
+        RtpStreamStats a = new RtpStreamStats();
+        RtpStreamStats b = new RtpStreamStats();
+        a.recordSenderState(SSRC_A, 16_000, 0);
+        b.recordSenderState(SSRC_B, 8_000, 0);
+        a.recordPacket(160);
+        b.recordPacket(160);
+        // A 收到 B 的 0..99 号包，其中 10 个丢失。 A sees B's packets 0..99 with ten of them missing.
+        for (int seq = 0; seq < 100; seq++) {
+            if (seq % 10 != 3) {
+                a.recordReceived(seq, seq * 160L, SSRC_B, seq * 20_000_000L);
+            }
+        }
+
+        // B 先发 SR，A 在 200 ms 后回 SR（带关于 B 的报告块），B 在发出后 300 ms 收到：往返时延约 100 ms。
+        // B sends an SR, A answers 200 ms later with an SR carrying a block about B, and B gets it 300 ms after
+        // sending: the round trip is about 100 ms.
+        ByteBuf fromB = Unpooled.buffer();
+        RtcpCodec.writeSenderReport(fromB, b, CNAME, START_MILLIS, 0);
+        long arrivalAtA = TimeUnit.MILLISECONDS.toNanos(50);
+        RtcpCodec.parse(fromB, a, START_MILLIS + 50, arrivalAtA);
+
+        ByteBuf fromA = Unpooled.buffer();
+        RtcpCodec.writeSenderReport(fromA, a, CNAME, START_MILLIS + 250, arrivalAtA + TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(fromA.getUnsignedByte(0) & 0x1F).as("report count").isEqualTo(1);
+        assertThat((int) fromA.getUnsignedByte(1)).isEqualTo(RtcpCodec.PT_SR);
+        assertThat(fromA.getInt(4)).isEqualTo(SSRC_A);
+        assertThat(fromA.getInt(28)).as("block SSRC").isEqualTo(SSRC_B);
+        RtcpCodec.parse(fromA, b, START_MILLIS + 300, 0);
+
+        assertThat(b.getReportsReceived()).isEqualTo(1);
+        assertThat(b.getRemoteCumulativeLost()).isEqualTo(10);
+        assertThat(b.getRemoteFractionLost()).isEqualTo(10 * 256 / 100);
+        assertThat(b.getRoundTripMicros()).isCloseTo(100_000L, within(1_000L));
+        assertThat(a.getLastSrNtpMiddle()).isEqualTo(RtcpCodec.ntpMiddle(START_MILLIS));
+    }
+
+    @Test
+    void receiverReportAboutAnotherSsrcIsIgnored() {
+        RtpStreamStats stats = new RtpStreamStats();
+        stats.recordSenderState(SSRC_A, 0, 0);
+        ByteBuf report = Unpooled.buffer();
+        report.writeByte(0x81).writeByte(RtcpCodec.PT_RR).writeShort(7).writeInt(SSRC_B);
+        report.writeInt(0x12345678).writeByte(9).writeMedium(99).writeInt(0).writeInt(0).writeInt(0).writeInt(0);
+        RtcpCodec.parse(report, stats, START_MILLIS, 0);
+        assertThat(stats.getReportsReceived()).isZero();
+    }
+
+    @Test
+    void fractionLostCoversOnlyTheCurrentInterval() {
+        RtpStreamStats stats = new RtpStreamStats();
+        for (int seq = 0; seq < 100; seq++) {
+            if (seq < 10 || seq >= 20) {
+                stats.recordReceived(seq, seq * 160L, SSRC_B, seq * 20_000_000L);
+            }
+        }
+        assertThat(stats.takeFractionLost()).isEqualTo(10 * 256 / 100);
+        for (int seq = 100; seq < 200; seq++) {
+            stats.recordReceived(seq, seq * 160L, SSRC_B, seq * 20_000_000L);
+        }
+        assertThat(stats.takeFractionLost()).isZero();
+        assertThat(stats.getPacketsLost()).isEqualTo(10);
+    }
+
+    @Test
+    void sequenceWrapExtendsTheHighestSequence() {
+        RtpStreamStats stats = new RtpStreamStats();
+        for (int i = 0; i < 20; i++) {
+            int seq = (65_530 + i) & 0xFFFF;
+            stats.recordReceived(seq, i * 160L, SSRC_B, i * 20_000_000L);
+        }
+        assertThat(stats.getExtendedHighestSequence()).isEqualTo(65_530 + 19);
+        assertThat(stats.getExpectedPackets()).isEqualTo(20);
+        assertThat(stats.getPacketsLost()).isZero();
+    }
+
+    /**
+     * 到达时间交替偏移 5 ms（40 个时间戳单位），与 RFC 3550 A.8 的浮点公式逐包比较。
+     * Arrivals alternate by 5 ms (40 timestamp units); compared packet by packet with the floating-point form of
+     * RFC 3550 A.8.
+     */
+    @Test
+    void jitterFollowsRfc3550A8() {
+        RtpStreamStats stats = new RtpStreamStats();
+        double expected = 0;
+        long previousTransit = 0;
+        for (int i = 0; i < 300; i++) {
+            long timestamp = i * 160L;
+            long arrivalNanos = i * 20_000_000L + (i % 2 == 0 ? 0 : 5_000_000L);
+            stats.recordReceived(i, timestamp, SSRC_B, arrivalNanos);
+            long transit = arrivalNanos / 125_000 - timestamp;
+            if (i > 0) {
+                expected += (Math.abs(transit - previousTransit) - expected) / 16;
+            }
+            previousTransit = transit;
+            // 整数实现按 1/16 定点累加并截断输出，允许略多于 1 个单位的差。
+            // The integer form accumulates in 1/16 fixed point and truncates on output, so allow a bit over one unit.
+            assertThat((double) stats.getJitter()).isCloseTo(expected, within(1.5));
+        }
+        assertThat(stats.getJitter()).isBetween(38L, 40L);
+        assertThat(stats.getJitterMillis()).isCloseTo(5.0, within(0.2));
+    }
+
+    /**
+     * 事件循环上不断切换 SSRC（触发重置）的同时由另一线程推进报告间隔，丢包比例必须始终落在 0-255。
+     * While the event loop keeps switching SSRC (forcing resets), another thread advances the report interval; the
+     * fraction lost must always stay within 0-255.
+     */
+    @Test
+    void reportIntervalIsConsistentWithConcurrentResets() throws Exception {
+        RtpStreamStats stats = new RtpStreamStats();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger bad = new AtomicInteger();
+        Thread reporter = new Thread(() -> {
+            while (running.get()) {
+                ByteBuf buf = Unpooled.buffer(128);
+                if (stats.getPacketsReceived() > 0) {
+                    RtcpCodec.writeSenderReport(buf, stats, CNAME, System.currentTimeMillis(), System.nanoTime());
+                }
+                int fraction = stats.takeFractionLost();
+                if (fraction < 0 || fraction > 255 || stats.getPacketsLost() < 0) {
+                    bad.incrementAndGet();
+                }
+            }
+        });
+        reporter.start();
+        try {
+            for (int i = 0; i < 200_000; i++) {
+                int ssrc = (i / 1_000) % 2 == 0 ? SSRC_A : SSRC_B;
+                stats.recordReceived((i * 3) & 0xFFFF, i * 160L, ssrc, i * 20_000_000L);
+            }
+        } finally {
+            running.set(false);
+            reporter.join();
+        }
+        assertThat(bad.get()).isZero();
+    }
+}
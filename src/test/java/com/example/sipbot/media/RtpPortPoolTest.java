@@ -0,0 +1,67 @@
+package com.example.sipbot.media;
+
+import com.example.sipbot.config.SipProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * RTP 端口池：按 RTP/RTCP 成对租用偶数端口，耗尽时返回 -1，归还后可再次租用。
+ * RTP port pool: even ports leased as RTP/RTCP pairs, -1 once exhausted, and ports can be leased again once returned.
+ */
+class RtpPortPoolTest {
+
+    @Test
+    void leasesDistinctPairsUntilExhausted() {
+        RtpPortPool pool = new RtpPortPool(properties(4000, 4009));
+        assertThat(pool.available()).isEqualTo(5);
+        Set<Integer> leased = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            int port = pool.lease();
+            assertThat(port).isBetween(4000, 4008);
+            assertThat(port % 2).isZero();
+            leased.add(port);
+        }
+        assertThat(leased).hasSize(5);
+        assertThat(pool.lease()).isEqualTo(-1);
+        assertThat(pool.available()).isZero();
+    }
+
+    @Test
+    void rtcpPortStaysInsideTheRange() {
+        // 上限为偶数时最后一个 RTP 端口没有配对的 RTCP 端口，不参与租用。
+        // With an even upper bound the last RTP port would have no RTCP port, so it is never leased.
+        RtpPortPool pool = new RtpPortPool(properties(4000, 4004));
+        assertThat(pool.available()).isEqualTo(2);
+        assertThat(pool.lease()).isEqualTo(4000);
+        assertThat(pool.lease()).isEqualTo(4002);
+        assertThat(pool.lease()).isEqualTo(-1);
+    }
+
+    @Test
+    void releasedPortCanBeLeasedAgain() {
+        RtpPortPool pool = new RtpPortPool(properties(4000, 4001));
+        int port = pool.lease();
+        assertThat(pool.lease()).isEqualTo(-1);
+        pool.release(port);
+        assertThat(pool.available()).isEqualTo(1);
+        assertThat(pool.lease()).isEqualTo(port);
+    }
+
+    @Test
+    void releasingAFailedLeaseIsIgnored() {
+        RtpPortPool pool = new RtpPortPool(properties(4000, 4001));
+        pool.release(-1);
+        assertThat(pool.available()).isEqualTo(1);
+    }
+
+    private static SipProperties properties(int first, int last) {
+        SipProperties properties = new SipProperties();
+        properties.setRtpPort(first);
+        properties.setRtpPortMax(last);
+        return properties;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.sipbot.media;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SRTP 密钥派生按 RFC 3711 附录 B.3 的测试向量校验，包保护结果与 JCE 的 AES/CTR + HmacSHA1 独立计算交叉比对。
+ * 以 -Dbenchmark=true 运行时另外对比明文 RTP 与 SRTP 的逐包开销。
+ * SRTP key derivation is checked against the RFC 3711 appendix B.3 vectors, and packet protection is cross-checked
+ * against an independent JCE AES/CTR + HmacSHA1 computation. Running with -Dbenchmark=true also compares the
+ * per-packet cost of plain RTP and SRTP.
+ */
+class SrtpTransformerTest {
+
+    private static final byte[] RFC_INLINE_KEY = ByteBufUtil.decodeHexDump(
+            "E1F97A0D3E018BE0D64FA32C06DE4139" + "0EC675AD498AFEEBB6960B3AABE6");
+    private static final int PAYLOAD_SIZE = 160;
+
+    @Test
+    void derivesRfc3711SessionKeys() {
+        assertThat(SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_ENCRYPTION, 16))
+                .isEqualTo(ByteBufUtil.decodeHexDump("C61E7A93744F39EE10734AFE3FF7A087"));
+        assertThat(SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_SALT, 14))
+                .isEqualTo(ByteBufUtil.decodeHexDump("30CBBC08863D8C85D49DB34A9AE1"));
+        assertThat(SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_AUTH, 20))
+                .isEqualTo(ByteBufUtil.decodeHexDump("CEBE321F6FF7716B6FD4AB49AF256A156D38BAA4"));
+    }
+
+    @Test
+    void protectsRtpLikeAesCtrWithHmacSha1() throws Exception {
+        SrtpTransformer srtp = new SrtpTransformer(RFC_INLINE_KEY, RFC_INLINE_KEY);
+        int ssrc = 0xDEADBEEF;
+        // 跨越序号回绕，覆盖 ROC 递增。 Crosses the sequence wrap so the ROC increment is covered.
+        int[] sequences = {65534, 65535, 0, 1};
+        int[] rollover = {0, 0, 1, 1};
+        for (int i = 0; i < sequences.length; i++) {
+            ByteBuf packet = rtpPacket(Unpooled.buffer(), sequences[i], ssrc, (byte) i);
+            byte[] plain = ByteBufUtil.getBytes(packet);
+            srtp.protectRtp(packet);
+            assertThat(ByteBufUtil.getBytes(packet))
+                    .isEqualTo(expectedSrtp(plain, ssrc, ((long) rollover[i] << 16) | sequences[i], rollover[i]));
+        }
+    }
+
+    @Test
+    void srtcpRoundTripsAndRejectsTampering() {
+        byte[] localKey = SrtpTransformer.generateInlineKey();
+        SrtpTransformer sender = new SrtpTransformer(localKey, SrtpTransformer.generateInlineKey());
+        SrtpTransformer receiver = new SrtpTransformer(SrtpTransformer.generateInlineKey(), localKey);
+        ByteBuf report = Unpooled.buffer();
+        report.writeByte(0x81).writeByte(RtcpCodec.PT_RR).writeShort(7).writeInt(0x5678);
+        report.writeInt(0x1234).writeByte(3).writeMedium(10).writeInt(500).writeInt(40).writeInt(0).writeInt(0);
+        byte[] plain = ByteBufUtil.getBytes(report);
+
+        sender.protectRtcp(report);
+        assertThat(report.readableBytes()).isEqualTo(plain.length + SrtpTransformer.RTCP_OVERHEAD);
+        assertThat(Arrays.copyOfRange(ByteBufUtil.getBytes(report), 8, plain.length))
+                .isNotEqualTo(Arrays.copyOfRange(plain, 8, plain.length));
+        ByteBuf tampered = report.copy();
+        tampered.setByte(12, tampered.getByte(12) ^ 1);
+
+        assertThat(receiver.unprotectRtcp(report)).isTrue();
+        assertThat(ByteBufUtil.getBytes(report)).isEqualTo(plain);
+        assertThat(receiver.unprotectRtcp(tampered)).isFalse();
+    }
+
+    /**
+     * 在同一线程上组包（池化直接缓冲、12 字节头 + 160 字节 PCMU），分别测量明文与 SRTP 的逐包耗时。
+     * Builds packets on one thread (pooled direct buffers, 12-byte header + 160 bytes of PCMU) and times plain RTP
+     * against SRTP per packet.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkPlainVersusSrtp() {
+        ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+        SrtpTransformer srtp = new SrtpTransformer(SrtpTransformer.generateInlineKey(), SrtpTransformer.generateInlineKey());
+        int packets = 1_000_000;
+        for (int round = 0; round < 3; round++) {
+            long plainNanos = timePackets(alloc, null, packets);
+            long srtpNanos = timePackets(alloc, srtp, packets);
+            double plainPerPacket = plainNanos / (double) packets;
+            double srtpPerPacket = srtpNanos / (double) packets;
+            // 每通呼叫每秒 50 个包。 Each call sends 50 packets a second.
+            double coreShare = (srtpPerPacket - plainPerPacket) * 50 / 1_000_000_000.0;
+            System.out.printf("round %d: plain %.0f ns/packet, SRTP %.0f ns/packet, SRTP costs %.4f%% of a core per call%n",
+                    round, plainPerPacket, srtpPerPacket, coreShare * 100);
+        }
+    }
+
+    private static long timePackets(ByteBufAllocator alloc, SrtpTransformer srtp, int packets) {
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            ByteBuf packet = rtpPacket(alloc.directBuffer(12 + PAYLOAD_SIZE + SrtpTransformer.RTP_OVERHEAD),
+                    i & 0xFFFF, 0x1234, (byte) i);
+            if (srtp != null) {
+                srtp.protectRtp(packet);
+            }
+            packet.release();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static ByteBuf rtpPacket(ByteBuf packet, int sequence, int ssrc, byte fill) {
+        packet.writeByte(0x80).writeByte(0).writeShort(sequence).writeInt(sequence * 160).writeInt(ssrc);
+        for (int i = 0; i < PAYLOAD_SIZE; i++) {
+            packet.writeByte(fill + i);
+        }
+        return packet;
+    }
+
+    private static byte[] expectedSrtp(byte[] plain, int ssrc, long index, int rollover) throws Exception {
+        byte[] sessionKey = SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_ENCRYPTION, 16);
+        byte[] salt = SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_SALT, 14);
+        byte[] authKey = SrtpTransformer.deriveSessionKey(RFC_INLINE_KEY, SrtpTransformer.LABEL_RTP_AUTH, 20);
+        byte[] iv = new byte[16];
+        System.arraycopy(salt, 0, iv, 0, 14);
+        for (int i = 0; i < 4; i++) {
+            iv[4 + i] ^= (byte) (ssrc >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 6; i++) {
+            iv[8 + i] ^= (byte) (index >>> (40 - 8 * i));
+        }
+        Cipher ctr = Cipher.getInstance("AES/CTR/NoPadding");
+        ctr.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sessionKey, "AES"), new IvParameterSpec(iv));
+        byte[] encrypted = Arrays.copyOf(plain, plain.length);
+        ctr.doFinal(plain, 12, plain.length - 12, encrypted, 12);
+
+        Mac hmac = Mac.getInstance("HmacSHA1");
+        hmac.init(new SecretKeySpec(authKey, "HmacSHA1"));
+        hmac.update(encrypted);
+        hmac.update(new byte[]{(byte) (rollover >>> 24), (byte) (rollover >>> 16), (byte) (rollover >>> 8), (byte) rollover});
+        byte[] tag = hmac.doFinal();
+        byte[] expected = Arrays.copyOf(encrypted, encrypted.length + SrtpTransformer.RTP_OVERHEAD);
+        System.arraycopy(tag, 0, expected, encrypted.length, SrtpTransformer.RTP_OVERHEAD);
+        return expected;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.sipbot.sip;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 摘要认证：RFC 2617 3.5 节示例向量、qop 选项解析与 nc 格式。
+ * Digest authentication: the RFC 2617 section 3.5 example, qop option parsing and the nc format.
+ */
+class DigestAuthTest {
+
+    @Test
+    void matchesTheRfc2617Example() throws Exception {
+        String response = DigestAuth.response("Mufasa", "testrealm@host.com", "Circle Of Life", "GET", "/dir/index.html",
+                "dcd98b7102dd2f0e8b11d0f600bfb0c093", "auth", 1, "0a4f113b");
+        assertThat(response).isEqualTo("6629fae49393a05397450978507c4ef1");
+    }
+
+    @Test
+    void withoutQopTheNonceCountIsIgnored() throws Exception {
+        String first = DigestAuth.response("1000", "sip.example.com", "secret", "INVITE", "sip:2000@sip.example.com",
+                "abc", null, 1, "x");
+        String second = DigestAuth.response("1000", "sip.example.com", "secret", "INVITE", "sip:2000@sip.example.com",
+                "abc", null, 2, "y");
+        assertThat(first).isEqualTo(second).hasSize(32);
+    }
+
+    @Test
+    void nonceCountChangesTheResponse() throws Exception {
+        String first = DigestAuth.response("1000", "sip.example.com", "secret", "INVITE", "sip:2000@sip.example.com",
+                "abc", "auth", 1, "c");
+        String second = DigestAuth.response("1000", "sip.example.com", "secret", "INVITE", "sip:2000@sip.example.com",
+                "abc", "auth", 2, "c");
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    void parsesQopOptions() {
+        assertThat(DigestAuth.offersAuth("auth")).isTrue();
+        assertThat(DigestAuth.offersAuth("auth-int, auth")).isTrue();
+        assertThat(DigestAuth.offersAuth("auth-int")).isFalse();
+        assertThat(DigestAuth.offersAuth(null)).isFalse();
+        assertThat(DigestAuth.formatNonceCount(26)).isEqualTo("0000001a");
+    }
+}
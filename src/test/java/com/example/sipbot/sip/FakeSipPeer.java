@@ -0,0 +1,262 @@
+package com.example.sipbot.sip;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 测试用的最小 UDP SIP 对端：向被测节点发起 INVITE 并发送 ACK/CANCEL/BYE；收到的 INVITE 回 180 振铃（或按设置以带
+ * SDP 的 200 OK 应答），其他请求（REGISTER、BYE 等）一律回 200 OK；收到的每条消息按顺序保存，供测试等待或断言。
+ * Minimal UDP SIP peer for tests: it sends INVITEs, ACKs, CANCELs and BYEs to the agent under test. INVITEs it
+ * receives get a 180 Ringing, or a 200 OK with SDP once set to answer them; every other request (REGISTER,
+ * BYE, ...) gets a 200 OK. Every message it receives is kept, in order, for tests to wait on or assert against.
+ */
+final class FakeSipPeer implements Runnable, AutoCloseable {
+
+    private static final long AWAIT_MILLIS = 5_000;
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private volatile InetSocketAddress agent;
+    private volatile boolean answerInvites;
+
+    FakeSipPeer() throws SocketException {
+        socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        thread = new Thread(this, "fake-sip-peer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    void setAgentPort(int port) {
+        agent = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    void setAnswerInvites(boolean answerInvites) {
+        this.answerInvites = answerInvites;
+    }
+
+    /**
+     * 发送带 PCMU 提议的 INVITE，返回其 Call-ID。
+     * Sends an INVITE offering PCMU and returns its Call-ID.
+     */
+    String invite() throws IOException {
+        String callId = "call-" + sequence.incrementAndGet() + "@127.0.0.1";
+        send(inviteTransactionRequest("INVITE", callId) + contactAndSdp());
+        return callId;
+    }
+
+    /**
+     * 对 INVITE 的 200 OK 发送 ACK：新的事务，发往应答中的 Contact，带上对端标签。
+     * Acknowledges a 200 OK to the INVITE: a new transaction sent to the answer's Contact, carrying its to-tag.
+     */
+    void ack(String ok) throws IOException {
+        String contact = header(ok, "Contact");
+        String target = contact.substring(contact.indexOf('<') + 1, contact.indexOf('>'));
+        send("ACK " + target + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:" + getPort() + ";branch=z9hG4bK-ack-" + sequence.incrementAndGet() + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: " + header(ok, "From") + "\r\n"
+                + "To: " + header(ok, "To") + "\r\n"
+                + "Call-ID: " + header(ok, "Call-ID") + "\r\n"
+                + "CSeq: 1 ACK\r\n"
+                + "Content-Length: 0\r\n\r\n");
+    }
+
+    /**
+     * 对 INVITE 的失败最终响应发送 ACK：属于同一事务，沿用 INVITE 的分支。
+     * Acknowledges a failure final response to the INVITE; part of the same transaction, so it reuses the INVITE
+     * branch.
+     */
+    void ackFailure(String response) throws IOException {
+        String callId = header(response, "Call-ID");
+        send("ACK sip:1000@" + agentHostPort() + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:" + getPort() + ";branch=" + branch(callId) + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: " + header(response, "From") + "\r\n"
+                + "To: " + header(response, "To") + "\r\n"
+                + "Call-ID: " + callId + "\r\n"
+                + "CSeq: 1 ACK\r\n"
+                + "Content-Length: 0\r\n\r\n");
+    }
+
+    void cancel(String callId) throws IOException {
+        send(inviteTransactionRequest("CANCEL", callId) + "Content-Length: 0\r\n\r\n");
+    }
+
+    /**
+     * 挂断由 {@link #invite()} 建立、已确认的呼叫；ok 为被测节点的 200 OK。
+     * Hangs up a confirmed call set up by {@link #invite()}; ok is the agent's 200 OK.
+     */
+    void bye(String ok) throws IOException {
+        String contact = header(ok, "Contact");
+        String target = contact.substring(contact.indexOf('<') + 1, contact.indexOf('>'));
+        send("BYE " + target + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:" + getPort() + ";branch=z9hG4bK-bye-" + sequence.incrementAndGet() + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: " + header(ok, "From") + "\r\n"
+                + "To: " + header(ok, "To") + "\r\n"
+                + "Call-ID: " + header(ok, "Call-ID") + "\r\n"
+                + "CSeq: 2 BYE\r\n"
+                + "Content-Length: 0\r\n\r\n");
+    }
+
+    /**
+     * 等待被测节点发来某方法的请求，返回首条的 Call-ID。
+     * Waits for a request with the given method from the agent and returns the Call-ID of the first one.
+     */
+    String awaitIncoming(String method) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AWAIT_MILLIS);
+        while (true) {
+            for (String message : received) {
+                if (message.startsWith(method + " ")) {
+                    return header(message, "Call-ID");
+                }
+            }
+            assertThat(System.nanoTime() - deadline).as("waiting for %s, saw %s", method, received).isNegative();
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 等待该呼叫中某方法的某个状态码响应，返回首次收到的那条。
+     * Waits for a response with the given status to the given method of the call and returns the first one.
+     */
+    String awaitResponse(String callId, int status, String method) throws InterruptedException {
+        return await(callId, "SIP/2.0 " + status + " ", method);
+    }
+
+    String awaitRequest(String callId, String method) throws InterruptedException {
+        return await(callId, method + " ", method);
+    }
+
+    boolean hasResponse(String callId, int status, String method) {
+        return find(callId, "SIP/2.0 " + status + " ", method) != null;
+    }
+
+    boolean hasRequest(String callId, String method) {
+        return find(callId, method + " ", method) != null;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[65535];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                received.add(message);
+                if (!message.startsWith("SIP/2.0 ") && !message.startsWith("ACK ")) {
+                    answer(message, packet);
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void answer(String request, DatagramPacket packet) throws IOException {
+        String to = header(request, "To");
+        boolean invite = request.startsWith("INVITE ");
+        String response = (invite && !answerInvites ? "SIP/2.0 180 Ringing\r\n" : "SIP/2.0 200 OK\r\n")
+                + "Via: " + header(request, "Via") + "\r\n"
+                + "From: " + header(request, "From") + "\r\n"
+                + "To: " + (to.contains(";tag=") ? to : to + ";tag=peer") + "\r\n"
+                + "Call-ID: " + header(request, "Call-ID") + "\r\n"
+                + "CSeq: " + header(request, "CSeq") + "\r\n"
+                + (invite && answerInvites ? contactAndSdp() : "Content-Length: 0\r\n\r\n");
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(bytes, bytes.length, packet.getSocketAddress()));
+    }
+
+    private String contactAndSdp() {
+        String sdp = "v=0\r\n"
+                + "o=peer 1 1 IN IP4 127.0.0.1\r\n"
+                + "s=-\r\n"
+                + "c=IN IP4 127.0.0.1\r\n"
+                + "t=0 0\r\n"
+                + "m=audio 40000 RTP/AVP 0\r\n";
+        return "Contact: <sip:caller@127.0.0.1:" + getPort() + ">\r\n"
+                + "Content-Type: application/sdp\r\n"
+                + "Content-Length: " + sdp.length() + "\r\n\r\n" + sdp;
+    }
+
+    private String inviteTransactionRequest(String method, String callId) {
+        return method + " sip:1000@" + agentHostPort() + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:" + getPort() + ";branch=" + branch(callId) + "\r\n"
+                + "Max-Forwards: 70\r\n"
+                + "From: <sip:caller@127.0.0.1:" + getPort() + ">;tag=caller\r\n"
+                + "To: <sip:1000@" + agentHostPort() + ">\r\n"
+                + "Call-ID: " + callId + "\r\n"
+                + "CSeq: 1 " + method + "\r\n";
+    }
+
+    private String agentHostPort() {
+        return "127.0.0.1:" + agent.getPort();
+    }
+
+    private static String branch(String callId) {
+        return "z9hG4bK-" + callId.substring(0, callId.indexOf('@'));
+    }
+
+    private void send(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(bytes, bytes.length, agent));
+    }
+
+    private String await(String callId, String firstLine, String method) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AWAIT_MILLIS);
+        String message;
+        while ((message = find(callId, firstLine, method)) == null) {
+            assertThat(System.nanoTime() - deadline)
+                    .as("waiting for %s to %s, saw %s", firstLine.trim(), method, received).isNegative();
+            Thread.sleep(10);
+        }
+        return message;
+    }
+
+    private String find(String callId, String firstLine, String method) {
+        for (String message : received) {
+            if (message.startsWith(firstLine) && callId.equals(header(message, "Call-ID"))
+                    && header(message, "CSeq").endsWith(" " + method)) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private static String header(String message, String name) {
+        String prefix = name.toLowerCase(Locale.ROOT) + ":";
+        for (String line : message.split("\r\n")) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (line.toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                return line.substring(prefix.length()).trim();
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.sipbot.sip;
+
+import gov.nist.javax.sip.ListeningPointExt;
+import gov.nist.javax.sip.SipStackImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 注册服务器持久连接：退避上界的增长与封顶、失败后恢复时只重新注册一次、连接断开时立即探测、ping 无响应时关闭连接、
+ * 重连并重新注册，以及停止后不再保活。
+ * Registrar flow: the backoff ceiling doubling up to its cap, re-registering exactly once when the flow recovers,
+ * probing at once when the connection drops, closing, reconnecting and re-registering after an unanswered ping,
+ * and no keepalives after stopping.
+ */
+class RegistrarFlowTest {
+
+    private static final String HOST = "192.0.2.10";
+    private static final int PORT = 5060;
+    private static final long PONG_TIMEOUT_MILLIS = 50;
+    private static final Supplier<CompletableFuture<?>> ANSWERED = () -> CompletableFuture.completedFuture(null);
+    private static final Supplier<CompletableFuture<?>> UNANSWERED = CompletableFuture::new;
+
+    private SipStackImpl sipStack;
+    private ListeningPointExt listeningPoint;
+    private final AtomicInteger reconnects = new AtomicInteger();
+    private RegistrarFlow flow;
+
+    @BeforeEach
+    void setUp() {
+        sipStack = mock(SipStackImpl.class);
+        listeningPoint = mock(ListeningPointExt.class);
+        when(listeningPoint.getIPAddress()).thenReturn("192.0.2.1");
+        when(listeningPoint.getPort()).thenReturn(5060);
+        when(listeningPoint.getTransport()).thenReturn("tcp");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (flow != null) {
+            flow.stop();
+        }
+    }
+
+    @Test
+    void backoffDoublesUpToTheCap() {
+        assertThat(RegistrarFlow.backoffMillis(1, 60_000)).isEqualTo(500);
+        assertThat(RegistrarFlow.backoffMillis(2, 60_000)).isEqualTo(1_000);
+        assertThat(RegistrarFlow.backoffMillis(3, 60_000)).isEqualTo(2_000);
+        assertThat(RegistrarFlow.backoffMillis(7, 60_000)).isEqualTo(32_000);
+        assertThat(RegistrarFlow.backoffMillis(8, 60_000)).isEqualTo(60_000);
+        // 长时间断开也不会移位溢出。 A long outage does not overflow the shift.
+        assertThat(RegistrarFlow.backoffMillis(1_000, 60_000)).isEqualTo(60_000);
+        assertThat(RegistrarFlow.backoffMillis(1, 200)).isEqualTo(200);
+    }
+
+    @Test
+    void reRegistersOnceWhenTheFlowRecovers() throws Exception {
+        doThrow(new IOException("refused"))
+                .doThrow(new IOException("refused"))
+                .doThrow(new IOException("refused"))
+                .doNothing()
+                .when(listeningPoint).sendHeartbeat(HOST, PORT);
+        CountDownLatch reconnected = new CountDownLatch(1);
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 20, PONG_TIMEOUT_MILLIS, 20, ANSWERED, () -> {
+            reconnects.incrementAndGet();
+            reconnected.countDown();
+        });
+        flow.start();
+
+        assertThat(reconnected.await(2, TimeUnit.SECONDS)).isTrue();
+        // 恢复后继续保活，但不会再次重新注册。 Keepalives go on after recovery without registering again.
+        verify(listeningPoint, timeout(2_000).atLeast(7)).sendHeartbeat(HOST, PORT);
+        assertThat(reconnects).hasValue(1);
+    }
+
+    @Test
+    void healthyFlowNeverReRegisters() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 10, PONG_TIMEOUT_MILLIS, 20, ANSWERED, reconnects::incrementAndGet);
+        flow.start();
+
+        verify(listeningPoint, timeout(2_000).atLeast(5)).sendHeartbeat(HOST, PORT);
+        assertThat(reconnects).hasValue(0);
+    }
+
+    @Test
+    void connectionLossProbesAtOnceAndReRegisters() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        CountDownLatch reconnected = new CountDownLatch(1);
+        // 保活间隔远长于测试，探测只可能来自 connectionLost。
+        // The keepalive interval outlasts the test, so a probe can only come from connectionLost.
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 60_000, PONG_TIMEOUT_MILLIS, 20, ANSWERED, () -> {
+            reconnects.incrementAndGet();
+            reconnected.countDown();
+        });
+        flow.start();
+        flow.connectionLost();
+
+        assertThat(reconnected.await(2, TimeUnit.SECONDS)).isTrue();
+        verify(listeningPoint, atLeast(1)).sendHeartbeat(HOST, PORT);
+        assertThat(reconnects).hasValue(1);
+    }
+
+    @Test
+    void unansweredPingClosesTheConnectionAndReRegistersOnceAnswered() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        AtomicInteger pings = new AtomicInteger();
+        CountDownLatch reconnected = new CountDownLatch(1);
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 60_000, PONG_TIMEOUT_MILLIS, 20,
+                () -> pings.incrementAndGet() == 1 ? new CompletableFuture<>() : CompletableFuture.completedFuture(null),
+                () -> {
+                    reconnects.incrementAndGet();
+                    reconnected.countDown();
+                });
+        flow.connectionLost();
+
+        assertThat(reconnected.await(2, TimeUnit.SECONDS)).isTrue();
+        verify(sipStack).closeReliableConnection("192.0.2.1", 5060, "tcp", HOST, PORT);
+        assertThat(pings).hasValue(2);
+        assertThat(flow.getFailures()).isZero();
+        assertThat(reconnects).hasValue(1);
+    }
+
+    @Test
+    void repeatedUnansweredPingsKeepGrowingTheBackoff() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        // 注册服务器一直不响应：每次超时都计为一次失败，不会重新注册。
+        // The registrar never answers, so every timeout counts as another failure and nothing re-registers.
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 60_000, 10, 20, UNANSWERED,
+                reconnects::incrementAndGet);
+        flow.connectionLost();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (flow.getFailures() < 4) {
+            assertThat(System.nanoTime() - deadline).as("failures stopped growing").isNegative();
+            Thread.sleep(5);
+        }
+        verify(sipStack, atLeast(3)).closeReliableConnection("192.0.2.1", 5060, "tcp", HOST, PORT);
+        assertThat(reconnects).hasValue(0);
+    }
+
+    @Test
+    void zeroPongTimeoutSkipsThePing() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        AtomicInteger pings = new AtomicInteger();
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 10, 0, 20, () -> {
+            pings.incrementAndGet();
+            return new CompletableFuture<>();
+        }, reconnects::incrementAndGet);
+        flow.start();
+
+        verify(listeningPoint, timeout(2_000).atLeast(3)).sendHeartbeat(HOST, PORT);
+        assertThat(pings).hasValue(0);
+        verify(sipStack, never()).closeReliableConnection("192.0.2.1", 5060, "tcp", HOST, PORT);
+    }
+
+    @Test
+    void stopEndsKeepalives() throws Exception {
+        doNothing().when(listeningPoint).sendHeartbeat(HOST, PORT);
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 10, PONG_TIMEOUT_MILLIS, 20, ANSWERED, reconnects::incrementAndGet);
+        flow.start();
+        verify(listeningPoint, timeout(2_000).atLeast(2)).sendHeartbeat(HOST, PORT);
+
+        flow.stop();
+        Thread.sleep(20);
+        int sent = mockingDetails(listeningPoint).getInvocations().size();
+        Thread.sleep(100);
+        assertThat(mockingDetails(listeningPoint).getInvocations()).hasSize(sent);
+    }
+
+    @Test
+    void matchesOnlyItsOwnRegistrar() {
+        flow = new RegistrarFlow(sipStack, listeningPoint, HOST, PORT, 60_000, PONG_TIMEOUT_MILLIS, 20, ANSWERED, reconnects::incrementAndGet);
+        assertThat(flow.isFlowTo(HOST, PORT)).isTrue();
+        assertThat(flow.isFlowTo(HOST, 5061)).isFalse();
+        assertThat(flow.isFlowTo("192.0.2.11", PORT)).isFalse();
+    }
+}
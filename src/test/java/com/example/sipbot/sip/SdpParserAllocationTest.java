@@ -0,0 +1,53 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.AllocationMeter;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * SDP 解析与应答生成每通呼叫执行一次，这里为其设定分配上限，防止逐行处理退化。
+ * SDP parsing and answer generation run once per call; these budgets keep the line handling from regressing.
+ */
+class SdpParserAllocationTest {
+
+    private static final String OFFER = String.join("\r\n",
+            "v=0",
+            "o=FreeSWITCH 1700000000 1700000001 IN IP4 192.168.56.10",
+            "s=FreeSWITCH",
+            "c=IN IP4 192.168.56.10",
+            "t=0 0",
+            "m=audio 24580 RTP/AVP 0 8 101 13",
+            "a=rtpmap:0 PCMU/8000",
+            "a=rtpmap:8 PCMA/8000",
+            "a=rtpmap:101 telephone-event/8000",
+            "a=fmtp:101 0-16",
+            "a=rtpmap:13 CN/8000",
+            "a=ptime:20",
+            "a=rtcp:24581 IN IP4 192.168.56.10",
+            "");
+
+    private static final int WARMUP = 5_000;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    void parseStaysWithinBudget() {
+        assumeTrue(AllocationMeter.isSupported(), "thread allocation accounting not available");
+        SdpDetails details = SdpParser.parse(OFFER).orElseThrow(AssertionError::new);
+        assertThat(details.getRemotePort()).isEqualTo(24580);
+        assertThat(details.getRemoteRtcpPort()).isEqualTo(24581);
+        assertThat(details.getComfortNoisePayloadType()).isEqualTo(13);
+
+        double perParse = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS, () -> SdpParser.parse(OFFER));
+        assertThat(perParse).as("bytes allocated per SDP parse").isLessThanOrEqualTo(6 * 1024);
+    }
+
+    @Test
+    void answerStaysWithinBudget() {
+        assumeTrue(AllocationMeter.isSupported(), "thread allocation accounting not available");
+        double perAnswer = AllocationMeter.bytesPerOperation(WARMUP, ITERATIONS,
+                () -> SdpParser.buildAnswer("192.168.56.1", 4000, 13));
+        assertThat(perAnswer).as("bytes allocated per SDP answer").isLessThanOrEqualTo(1536);
+    }
+}
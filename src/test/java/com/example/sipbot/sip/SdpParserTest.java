@@ -0,0 +1,79 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.media.SrtpTransformer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SDP 解析：格式错误的数值字段跳过所在行或使整个描述无效（随后以 488 拒绝），不抛出异常。
+ * SDP parsing: a malformed numeric field skips its line or invalidates the whole description, which is then
+ * rejected with 488, and never throws.
+ */
+class SdpParserTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[SrtpTransformer.INLINE_KEY_LENGTH]);
+
+    @Test
+    void parsesAWellFormedSecureOffer() {
+        SdpDetails details = SdpParser.parse(offer("m=audio 24580 RTP/SAVP 0 13", "a=rtcp:24591",
+                "a=crypto:2 " + SrtpTransformer.SUITE + " inline:" + KEY)).orElseThrow(AssertionError::new);
+        assertThat(details.getRemotePort()).isEqualTo(24580);
+        assertThat(details.getRemoteRtcpPort()).isEqualTo(24591);
+        assertThat(details.getComfortNoisePayloadType()).isEqualTo(13);
+        assertThat(details.isSecure()).isTrue();
+        assertThat(details.getCryptoTag()).isEqualTo(2);
+        assertThat(details.getCryptoKey()).hasSize(SrtpTransformer.INLINE_KEY_LENGTH);
+    }
+
+    @Test
+    void malformedCryptoTagSkipsTheLine() {
+        SdpDetails details = SdpParser.parse(offer("m=audio 24580 RTP/SAVP 0",
+                "a=crypto:x " + SrtpTransformer.SUITE + " inline:" + KEY)).orElseThrow(AssertionError::new);
+        assertThat(details.getCryptoKey()).isNull();
+
+        details = SdpParser.parse(offer("m=audio 24580 RTP/SAVP 0",
+                "a=crypto:99999999999 " + SrtpTransformer.SUITE + " inline:" + KEY,
+                "a=crypto:3 " + SrtpTransformer.SUITE + " inline:" + KEY)).orElseThrow(AssertionError::new);
+        assertThat(details.getCryptoTag()).isEqualTo(3);
+        assertThat(details.getCryptoKey()).isNotNull();
+    }
+
+    @Test
+    void malformedRtcpPortFallsBackToRtpPortPlusOne() {
+        assertThat(SdpParser.parse(offer("m=audio 24580 RTP/AVP 0", "a=rtcp:abc IN IP4 192.168.56.10")))
+                .hasValueSatisfying(details -> assertThat(details.getRemoteRtcpPort()).isEqualTo(24581));
+        assertThat(SdpParser.parse(offer("m=audio 24580 RTP/AVP 0", "a=rtcp:70000")))
+                .hasValueSatisfying(details -> assertThat(details.getRemoteRtcpPort()).isEqualTo(24581));
+    }
+
+    @Test
+    void malformedAudioPortInvalidatesTheDescription() {
+        assertThat(SdpParser.parse(offer("m=audio port RTP/AVP 0"))).isEmpty();
+        assertThat(SdpParser.parse(offer("m=audio -2 RTP/AVP 0"))).isEmpty();
+    }
+
+    @Test
+    void nonNumericComfortNoisePayloadTypeIsIgnored() {
+        assertThat(SdpParser.parse(offer("m=audio 24580 RTP/AVP 0 cn", "a=rtpmap:cn CN/8000")))
+                .hasValueSatisfying(details -> assertThat(details.getComfortNoisePayloadType()).isEqualTo(-1));
+    }
+
+    @Test
+    void offerCarriesTheTagAnAnswerMustEcho() {
+        String offer = SdpParser.buildOffer("192.168.56.1", 4000, false, new byte[SrtpTransformer.INLINE_KEY_LENGTH]);
+        assertThat(SdpParser.parse(offer))
+                .hasValueSatisfying(details -> assertThat(details.getCryptoTag()).isEqualTo(SdpParser.OFFER_CRYPTO_TAG));
+    }
+
+    private static String offer(String... mediaLines) {
+        return "v=0\r\n"
+                + "o=peer 1 1 IN IP4 192.168.56.10\r\n"
+                + "s=-\r\n"
+                + "c=IN IP4 192.168.56.10\r\n"
+                + "t=0 0\r\n"
+                + String.join("\r\n", mediaLines) + "\r\n";
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.admin.DrainControl;
+import com.example.sipbot.cdr.CallDetailRecord;
+import com.example.sipbot.cdr.CdrJournal;
+import com.example.sipbot.cdr.HangupCause;
+import com.example.sipbot.cdr.HangupParty;
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.media.AudioPrompt;
+import com.example.sipbot.media.PromptResolver;
+import com.example.sipbot.media.RtpAudioStreamer;
+import com.example.sipbot.media.RtpPortPool;
+import com.example.sipbot.media.RtpStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sip.SipFactory;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 排空：排空中的 INVITE 以 503 + Retry-After 拒绝；awaitDrained 等待进行中的呼叫结束；截止时仍在进行的呼叫以 BYE/CANCEL
+ * 挂断后协议栈才停止；resume 后重新接受呼叫；已应答的外呼只计一次。
+ * Draining: an INVITE while draining is refused with 503 and Retry-After, awaitDrained waits for calls in progress
+ * to end, calls still up at the deadline are hung up with a BYE or CANCEL before the stack stops, resume accepts
+ * calls again, and an answered outbound call is counted once.
+ */
+class SipAgentDrainTest {
+
+    private FakeSipPeer peer;
+    private SipProperties properties;
+    private CdrJournal cdrJournal;
+    private SipAgent agent;
+    private DrainControl drainControl;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        peer = new FakeSipPeer();
+        properties = new SipProperties();
+        properties.setLocalAddress("127.0.0.1");
+        properties.setPort(freePort());
+        properties.setDomain("127.0.0.1:" + peer.getPort());
+        properties.setDrainTimeoutSeconds(1);
+        peer.setAgentPort(properties.getPort());
+
+        cdrJournal = mock(CdrJournal.class);
+        RtpAudioStreamer rtpAudioStreamer = mock(RtpAudioStreamer.class);
+        when(rtpAudioStreamer.prepare(anyString(), anyInt(), anyInt(), anyInt(), any(), anyInt(), any(), any(), any()))
+                .thenReturn(mock(RtpStream.class));
+        PromptResolver promptResolver = mock(PromptResolver.class);
+        when(promptResolver.resolveAsync(anyString())).thenReturn(CompletableFuture.completedFuture(AudioPrompt.empty()));
+        RtpPortPool rtpPortPool = mock(RtpPortPool.class);
+        when(rtpPortPool.lease()).thenReturn(40_002);
+        agent = new SipAgent(properties, promptResolver, rtpAudioStreamer, cdrJournal, rtpPortPool);
+        agent.start();
+        drainControl = new DrainControl(agent, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        agent.shutdown();
+        peer.close();
+        SipFactory.getInstance().resetFactory();
+    }
+
+    @Test
+    void inviteWhileDrainingGets503WithRetryAfter() throws Exception {
+        drainControl.drain();
+        String callId = peer.invite();
+
+        String refused = peer.awaitResponse(callId, 503, "INVITE");
+        peer.ackFailure(refused);
+        assertThat(refused).containsPattern("(?im)^Retry-After: *\\d+");
+        assertThat(agent.getActiveCallCount()).isZero();
+    }
+
+    @Test
+    void awaitDrainedWaitsForCallsInProgress() throws Exception {
+        String callId = peer.invite();
+        String ok = peer.awaitResponse(callId, 200, "INVITE");
+        peer.ack(ok);
+        drainControl.drain();
+
+        assertThat(agent.awaitDrained(200)).as("drained with a call up").isFalse();
+        assertThat(drainControl.getActiveCalls()).isEqualTo(1);
+
+        long start = System.nanoTime();
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(300);
+                peer.bye(ok);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(agent.awaitDrained(5_000)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(300);
+        assertThat(drainControl.getActiveCalls()).isZero();
+    }
+
+    @Test
+    void callsUpAtTheDeadlineAreHungUpBeforeTheStackStops() throws Exception {
+        String inbound = peer.invite();
+        peer.ack(peer.awaitResponse(inbound, 200, "INVITE"));
+        CompletableFuture<CallDetailRecord> ringing = agent.originate("2000");
+        String outbound = peer.awaitIncoming("INVITE");
+        assertThat(agent.getActiveCallCount()).isEqualTo(2);
+
+        agent.shutdown();
+
+        assertThat(peer.hasRequest(inbound, "BYE")).as("BYE for the answered call").isTrue();
+        assertThat(peer.hasRequest(outbound, "CANCEL")).as("CANCEL for the ringing call").isTrue();
+        CallDetailRecord cdr = ringing.get(1, TimeUnit.SECONDS);
+        assertThat(cdr.getHangupCause()).isEqualTo(HangupCause.SYSTEM_SHUTDOWN);
+        assertThat(cdr.getHangupParty()).isEqualTo(HangupParty.SYSTEM);
+        assertThat(agent.getActiveCallCount()).isZero();
+    }
+
+    @Test
+    void resumeAcceptsCallsAgain() throws Exception {
+        drainControl.drain();
+        peer.ackFailure(peer.awaitResponse(peer.invite(), 503, "INVITE"));
+
+        drainControl.resume();
+
+        assertThat(drainControl.isDraining()).isFalse();
+        String callId = peer.invite();
+        peer.ack(peer.awaitResponse(callId, 200, "INVITE"));
+        assertThat(agent.getActiveCallCount()).isEqualTo(1);
+    }
+
+    @Test
+    void answeredOutboundCallCountsOnce() throws Exception {
+        peer.setAnswerInvites(true);
+        agent.originate("2000");
+        peer.awaitRequest(peer.awaitIncoming("INVITE"), "ACK");
+
+        assertThat(agent.getActiveCallCount()).isEqualTo(1);
+    }
+
+    private static int freePort() throws SocketException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.cdr.CallDetailRecord;
+import com.example.sipbot.cdr.CdrJournal;
+import com.example.sipbot.cdr.HangupCause;
+import com.example.sipbot.cdr.HangupParty;
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.media.AudioPrompt;
+import com.example.sipbot.media.PromptResolver;
+import com.example.sipbot.media.RtpAudioStreamer;
+import com.example.sipbot.media.RtpPortPool;
+import com.example.sipbot.media.RtpStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.sip.SipFactory;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 早期媒体：183 后立即播放、定时器到期再发 200 OK；期间的 CANCEL 以 487 结束；提示音在应答前播完时不应答，
+ * 在 200 OK 之后、ACK 之前播完时 BYE 等到 ACK 之后再发。
+ * Early media: playback starts with the 183 and the 200 OK follows when the timer fires; a CANCEL meanwhile ends
+ * the call with a 487; prompts that finish before the answer leave the call unanswered, and prompts that finish
+ * between the 200 OK and its ACK hold the BYE back until the ACK.
+ */
+class SipAgentEarlyMediaTest {
+
+    private static final long EARLY_MEDIA_MILLIS = 300;
+
+    private FakeSipPeer peer;
+    private SipProperties properties;
+    private CdrJournal cdrJournal;
+    private RtpAudioStreamer rtpAudioStreamer;
+    private RtpStream media;
+    private final AtomicReference<Runnable> promptsFinished = new AtomicReference<>();
+    private SipAgent agent;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        peer = new FakeSipPeer();
+        properties = new SipProperties();
+        properties.setLocalAddress("127.0.0.1");
+        properties.setPort(freePort());
+        properties.setDomain("127.0.0.1:" + peer.getPort());
+        properties.setEarlyMedia(true);
+        properties.setEarlyMediaMillis(EARLY_MEDIA_MILLIS);
+        properties.setDrainTimeoutSeconds(1);
+        peer.setAgentPort(properties.getPort());
+
+        cdrJournal = mock(CdrJournal.class);
+        media = mock(RtpStream.class);
+        rtpAudioStreamer = mock(RtpAudioStreamer.class);
+        // 媒体流关闭时执行的回调即“提示音播完”，测试中直接调用。
+        // The callback a stream runs when it closes is "prompts finished"; the tests call it directly.
+        when(rtpAudioStreamer.prepare(anyString(), anyInt(), anyInt(), anyInt(), any(), anyInt(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    promptsFinished.set(invocation.getArgument(7));
+                    return media;
+                });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (agent != null) {
+            agent.shutdown();
+        }
+        peer.close();
+        SipFactory.getInstance().resetFactory();
+    }
+
+    @Test
+    void answersWhenTheEarlyMediaTimerFires() throws Exception {
+        startAgent();
+        long start = System.nanoTime();
+        String callId = peer.invite();
+
+        peer.awaitResponse(callId, 183, "INVITE");
+        verify(media, timeout(1_000)).start();
+        String ok = peer.awaitResponse(callId, 200, "INVITE");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(EARLY_MEDIA_MILLIS);
+        peer.ack(ok);
+
+        verify(media, timeout(1_000).atLeastOnce()).start();
+        assertThat(agent.getActiveCallCount()).isEqualTo(1);
+        verify(cdrJournal, never()).append(any());
+    }
+
+    @Test
+    void cancelDuringEarlyMediaEndsTheCallWith487() throws Exception {
+        startAgent();
+        String callId = peer.invite();
+        peer.awaitResponse(callId, 183, "INVITE");
+
+        peer.cancel(callId);
+        peer.awaitResponse(callId, 200, "CANCEL");
+        peer.ackFailure(peer.awaitResponse(callId, 487, "INVITE"));
+
+        CallDetailRecord cdr = journaled();
+        assertThat(cdr.getHangupCause()).isEqualTo(HangupCause.ORIGINATOR_CANCEL);
+        assertThat(cdr.getHangupParty()).isEqualTo(HangupParty.REMOTE);
+        verify(media, atLeastOnce()).close();
+        Thread.sleep(EARLY_MEDIA_MILLIS + 200);
+        assertThat(peer.hasResponse(callId, 200, "INVITE")).as("cancelled call answered by the timer").isFalse();
+        assertThat(agent.getActiveCallCount()).isZero();
+    }
+
+    @Test
+    void promptsEndingDuringEarlyMediaLeaveTheCallUnanswered() throws Exception {
+        startAgent();
+        String callId = peer.invite();
+        peer.awaitResponse(callId, 183, "INVITE");
+        // 183 先于早期呼叫登记发出；提示音只会在播放开始后播完。
+        // The 183 goes out before the early call is registered; prompts can only end once playback has started.
+        verify(media, timeout(1_000)).start();
+
+        promptsFinished.get().run();
+        peer.ackFailure(peer.awaitResponse(callId, 480, "INVITE"));
+
+        CallDetailRecord cdr = journaled();
+        assertThat(cdr.getSipStatus()).isEqualTo(480);
+        assertThat(cdr.getHangupCause()).isEqualTo(HangupCause.NORMAL_CLEARING);
+        assertThat(cdr.getHangupParty()).isEqualTo(HangupParty.LOCAL);
+        Thread.sleep(EARLY_MEDIA_MILLIS + 200);
+        assertThat(peer.hasResponse(callId, 200, "INVITE")).isFalse();
+        assertThat(peer.hasRequest(callId, "BYE")).isFalse();
+    }
+
+    @Test
+    void promptsEndingDuringEarlyMediaAnswerAtOnceWhenNotHangingUp() throws Exception {
+        properties.setHangupAfterPlayback(false);
+        properties.setEarlyMediaMillis(60_000);
+        startAgent();
+        String callId = peer.invite();
+        peer.awaitResponse(callId, 183, "INVITE");
+        verify(media, timeout(1_000)).start();
+
+        promptsFinished.get().run();
+        peer.ack(peer.awaitResponse(callId, 200, "INVITE"));
+
+        Thread.sleep(200);
+        assertThat(peer.hasRequest(callId, "BYE")).isFalse();
+        assertThat(agent.getActiveCallCount()).isEqualTo(1);
+    }
+
+    @Test
+    void byeWaitsForTheAckWhenPromptsEndAfterTheAnswer() throws Exception {
+        startAgent();
+        String callId = peer.invite();
+        String ok = peer.awaitResponse(callId, 200, "INVITE");
+
+        promptsFinished.get().run();
+        Thread.sleep(300);
+        assertThat(peer.hasRequest(callId, "BYE")).as("BYE sent before the ACK").isFalse();
+
+        peer.ack(ok);
+        peer.awaitRequest(callId, "BYE");
+        CallDetailRecord cdr = journaled();
+        assertThat(cdr.getHangupCause()).isEqualTo(HangupCause.NORMAL_CLEARING);
+        assertThat(cdr.getHangupParty()).isEqualTo(HangupParty.LOCAL);
+    }
+
+    private void startAgent() throws Exception {
+        PromptResolver promptResolver = mock(PromptResolver.class);
+        when(promptResolver.resolveAsync(anyString())).thenReturn(CompletableFuture.completedFuture(AudioPrompt.empty()));
+        RtpPortPool rtpPortPool = mock(RtpPortPool.class);
+        when(rtpPortPool.lease()).thenReturn(40_002);
+        agent = new SipAgent(properties, promptResolver, rtpAudioStreamer, cdrJournal, rtpPortPool);
+        agent.start();
+    }
+
+    private CallDetailRecord journaled() {
+        ArgumentCaptor<CallDetailRecord> cdr = ArgumentCaptor.forClass(CallDetailRecord.class);
+        verify(cdrJournal, timeout(1_000)).append(cdr.capture());
+        return cdr.getValue();
+    }
+
+    private static int freePort() throws SocketException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.sipbot.sip;
+
+import com.example.sipbot.cdr.CdrJournal;
+import com.example.sipbot.config.SipProperties;
+import com.example.sipbot.media.PromptResolver;
+import com.example.sipbot.media.RtpAudioStreamer;
+import com.example.sipbot.media.RtpPortPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sip.SipFactory;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 停止时的注销：空闲节点也要等认证后的注销得到响应才停止协议栈；注册服务器不响应时只等待有限时间。
+ * Deregistering on shutdown: even an idle node waits for the authenticated de-REGISTER to be answered before the
+ * stack stops, and a registrar that never answers only holds shutdown up for a bounded time.
+ */
+class SipAgentShutdownTest {
+
+    private FakeRegistrar registrar;
+    private SipAgent agent;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registrar = new FakeRegistrar();
+        SipProperties properties = new SipProperties();
+        properties.setLocalAddress("127.0.0.1");
+        properties.setPort(freePort());
+        properties.setDomain("127.0.0.1:" + registrar.getPort());
+        properties.setUsername("1000");
+        properties.setPassword("secret");
+        properties.setRegisterTtlSeconds(60);
+        agent = new SipAgent(properties, mock(PromptResolver.class), mock(RtpAudioStreamer.class), mock(CdrJournal.class),
+                mock(RtpPortPool.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        registrar.close();
+        SipFactory.getInstance().resetFactory();
+    }
+
+    @Test
+    void idleShutdownSendsTheAuthenticatedDeregistration() throws Exception {
+        agent.start();
+        registrar.await("REGISTER expires=60 auth=true -> 200");
+
+        agent.shutdown();
+
+        assertThat(registrar.getExchanges()).containsSubsequence(
+                "REGISTER expires=0 auth=false -> 401",
+                "REGISTER expires=0 auth=true -> 200");
+    }
+
+    @Test
+    void unansweredDeregistrationDoesNotHoldShutdownUp() throws Exception {
+        agent.start();
+        registrar.await("REGISTER expires=60 auth=true -> 200");
+        registrar.ignoreDeregistration();
+
+        long start = System.nanoTime();
+        agent.shutdown();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(10_000);
+        assertThat(registrar.getExchanges()).contains("REGISTER expires=0 auth=false -> none");
+    }
+
+    private static int freePort() throws SocketException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 最小的 UDP 注册服务器：未带凭据的 REGISTER 回 401，带凭据的回 200，均延迟片刻，并按顺序记录每次交互。
+     * Minimal UDP registrar: a REGISTER without credentials gets a 401 and one with credentials a 200, both after a
+     * short delay, and every exchange is recorded in order.
+     */
+    private static final class FakeRegistrar implements Runnable {
+
+        // 模拟到注册服务器的往返时延；回环上的响应几乎瞬间到达，掩盖停止协议栈过早的问题。
+        // Stands in for the round trip to a real registrar; on loopback responses arrive almost at once, which would
+        // hide a stack stopped too early.
+        private static final long RESPONSE_DELAY_MILLIS = 200;
+
+        private final DatagramSocket socket;
+        private final Thread thread;
+        private final List<String> exchanges = new CopyOnWriteArrayList<>();
+        private volatile boolean ignoreDeregistration;
+
+        FakeRegistrar() throws SocketException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            thread = new Thread(this, "fake-registrar");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        List<String> getExchanges() {
+            return exchanges;
+        }
+
+        void ignoreDeregistration() {
+            ignoreDeregistration = true;
+        }
+
+        void await(String exchange) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!exchanges.contains(exchange)) {
+                assertThat(System.nanoTime() - deadline).as("waiting for %s, saw %s", exchange, exchanges).isNegative();
+                Thread.sleep(10);
+            }
+        }
+
+        void close() {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[65535];
+            while (!socket.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                    handle(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8), packet);
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void handle(String message, DatagramPacket packet) throws IOException, InterruptedException {
+            if (!message.startsWith("REGISTER ")) {
+                return;
+            }
+            String expires = "";
+            boolean authorized = false;
+            StringBuilder echoed = new StringBuilder();
+            for (String line : message.split("\r\n")) {
+                String lower = line.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("expires:")) {
+                    expires = line.substring(line.indexOf(':') + 1).trim();
+                } else if (lower.startsWith("authorization:")) {
+                    authorized = true;
+                } else if (lower.startsWith("via:") || lower.startsWith("from:") || lower.startsWith("call-id:")
+                        || lower.startsWith("cseq:")) {
+                    echoed.append(line).append("\r\n");
+                } else if (lower.startsWith("to:")) {
+                    echoed.append(line).append(";tag=registrar\r\n");
+                }
+            }
+            String exchange = "REGISTER expires=" + expires + " auth=" + authorized;
+            if ("0".equals(expires) && ignoreDeregistration) {
+                record(exchange + " -> none");
+                return;
+            }
+            String response;
+            if (authorized) {
+                response = "SIP/2.0 200 OK\r\n" + echoed;
+                record(exchange + " -> 200");
+            } else {
+                response = "SIP/2.0 401 Unauthorized\r\n" + echoed
+                        + "WWW-Authenticate: Digest realm=\"test\", nonce=\"" + System.nanoTime() + "\", algorithm=MD5\r\n";
+                record(exchange + " -> 401");
+            }
+            Thread.sleep(RESPONSE_DELAY_MILLIS);
+            byte[] bytes = (response + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            socket.send(new DatagramPacket(bytes, bytes.length, packet.getSocketAddress()));
+        }
+
+        private void record(String exchange) {
+            if (!exchanges.contains(exchange)) {
+                exchanges.add(exchange);
+            }
+        }
+    }
+}